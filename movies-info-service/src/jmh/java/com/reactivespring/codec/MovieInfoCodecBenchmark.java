@@ -0,0 +1,121 @@
+package com.reactivespring.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.config.Json;
+import com.reactivespring.domain.MovieInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Encode/decode cost of MovieInfo through the WebFlux Jackson codecs, with reflective
+ * accessors against the Blackbird generated ones. Throughput is per MovieInfo; run with
+ * the gc profiler (the default in build.gradle) and read gc.alloc.rate.norm for the
+ * bytes allocated per MovieInfo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MovieInfoCodecBenchmark {
+
+    private static final int STREAM_SIZE = 1000;
+    private static final ResolvableType MOVIE_INFO_TYPE = ResolvableType.forClass(MovieInfo.class);
+
+    @Param({"reflective", "blackbird"})
+    public String accessors;
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    private ObjectMapper mapper;
+    private Jackson2JsonEncoder encoder;
+    private Jackson2JsonDecoder decoder;
+
+    private MovieInfo movieInfo;
+    private List<MovieInfo> movieInfos;
+    private byte[] json;
+    private byte[] ndjson;
+
+    @Setup
+    public void setUp() {
+        mapper = "blackbird".equals(accessors) ? Json.mapper() : Json.builder().build();
+        encoder = new Jackson2JsonEncoder(mapper, MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON);
+        decoder = new Jackson2JsonDecoder(mapper, MediaType.APPLICATION_JSON, MediaType.APPLICATION_NDJSON);
+
+        movieInfos = IntStream.range(0, STREAM_SIZE)
+                .mapToObj(i -> new MovieInfo("id-" + i, "Batman Begins " + i, 2005,
+                        List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"), 1L))
+                .collect(Collectors.toList());
+        movieInfo = movieInfos.get(0);
+        json = Json.writeValueAsString(movieInfo).getBytes(StandardCharsets.UTF_8);
+        ndjson = movieInfos.stream()
+                .map(Json::writeValueAsString)
+                .collect(Collectors.joining("\n", "", "\n"))
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] encodeSingle() throws IOException {
+        return mapper.writeValueAsBytes(movieInfo);
+    }
+
+    @Benchmark
+    public MovieInfo decodeSingle() throws IOException {
+        return mapper.readValue(json, MovieInfo.class);
+    }
+
+    @Benchmark
+    public DataBuffer encodeValue() {
+        return encoder.encodeValue(movieInfo, bufferFactory, MOVIE_INFO_TYPE, MediaType.APPLICATION_JSON, Map.of());
+    }
+
+    @Benchmark
+    public Object decodeValue() {
+        return decoder.decode(bufferFactory.wrap(json), MOVIE_INFO_TYPE, MediaType.APPLICATION_JSON, Map.of());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_SIZE)
+    public long encodeNdjson() {
+        return encoder.encode(Flux.fromIterable(movieInfos), bufferFactory, MOVIE_INFO_TYPE,
+                        MediaType.APPLICATION_NDJSON, Map.of())
+                .map(buffer -> {
+                    var size = buffer.readableByteCount();
+                    DataBufferUtils.release(buffer);
+                    return (long) size;
+                })
+                .reduce(0L, Long::sum)
+                .block();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STREAM_SIZE)
+    public long decodeNdjson() {
+        return decoder.decode(Flux.just(bufferFactory.wrap(ndjson)), MOVIE_INFO_TYPE,
+                        MediaType.APPLICATION_NDJSON, Map.of())
+                .count()
+                .block();
+    }
+}
@@ -0,0 +1,75 @@
+package com.reactivespring.search;
+
+import com.reactivespring.domain.MovieInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Typeahead latency at catalogue size. SampleTime reports the p0.99 per lookup; the
+ * target is under 5 ms at 100k titles. Queries are 1 to 4 letter prefixes of words that
+ * exist in the index, the short ones being the most expensive since they match the most
+ * terms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MovieInfoSearchIndexBenchmark {
+
+    private static final String[] WORDS = {"batman", "dark", "knight", "rises", "begins", "return", "the", "of",
+            "night", "star", "empire", "strikes", "back", "lord", "rings", "fellowship", "king", "matrix",
+            "reloaded", "revolutions", "godfather", "part", "pulp", "fiction", "forrest", "gump", "inception",
+            "interstellar", "memento", "prestige", "alien", "aliens", "blade", "runner", "heat", "casino"};
+    private static final String[] FIRST_NAMES = {"christian", "michael", "heath", "tom", "anne", "gary", "morgan",
+            "scarlett", "keanu", "carrie", "al", "robert", "uma", "samuel", "leonardo", "joseph", "ellen"};
+    private static final String[] LAST_NAMES = {"bale", "cane", "ledger", "hardy", "hathaway", "oldman", "freeman",
+            "johansson", "reeves", "moss", "pacino", "niro", "thurman", "jackson", "dicaprio", "levitt", "page"};
+
+    @Param({"100000"})
+    public int titles;
+
+    private final MovieInfoSearchIndex searchIndex = new MovieInfoSearchIndex();
+    private String[] queries;
+
+    @Setup
+    public void setUp() {
+        var random = new Random(42);
+        for (int i = 0; i < titles; i++) {
+            var name = word(random, WORDS) + " " + word(random, WORDS) + " " + word(random, WORDS) + " " + i;
+            var cast = List.of(castMember(random), castMember(random), castMember(random));
+            searchIndex.put(new MovieInfo(String.valueOf(i), name, 1950 + random.nextInt(75), cast,
+                    LocalDate.of(2000, 1, 1), 0L));
+        }
+        queries = new String[1024];
+        for (int i = 0; i < queries.length; i++) {
+            var word = i % 2 == 0 ? word(random, WORDS) : word(random, LAST_NAMES);
+            queries[i] = word.substring(0, Math.min(word.length(), 1 + random.nextInt(4)));
+        }
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<MovieInfo> search() {
+        return searchIndex.search(queries[ThreadLocalRandom.current().nextInt(queries.length)], 10);
+    }
+
+    private static String castMember(Random random) {
+        return word(random, FIRST_NAMES) + " " + word(random, LAST_NAMES);
+    }
+
+    private static String word(Random random, String[] words) {
+        return words[random.nextInt(words.length)];
+    }
+}
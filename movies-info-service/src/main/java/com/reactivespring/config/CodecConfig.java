@@ -0,0 +1,38 @@
+package com.reactivespring.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+
+import java.util.List;
+
+@Configuration
+public class CodecConfig {
+
+    private static final MimeType[] JSON_MIME_TYPES = {
+            MediaType.APPLICATION_JSON,
+            new MediaType("application", "*+json"),
+            MediaType.APPLICATION_NDJSON
+    };
+
+    // Registered last, so JSON and NDJSON bodies in both directions go through the one Blackbird
+    // backed mapper and no other codec gets to build its own.
+    @Bean
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public CodecCustomizer jsonCodecCustomizer(ObjectMapper objectMapper) {
+        return configurer -> {
+            var encoder = new Jackson2JsonEncoder(objectMapper, JSON_MIME_TYPES);
+            // each element is flushed as its own line instead of being aggregated into an array
+            encoder.setStreamingMediaTypes(List.of(MediaType.APPLICATION_NDJSON));
+            configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+            configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper, JSON_MIME_TYPES));
+        };
+    }
+}
@@ -1,10 +1,13 @@
 package com.reactivespring.config;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.util.StdDateFormat;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
 
 import java.util.concurrent.Callable;
@@ -24,17 +27,35 @@ public enum Json {
         return invoke(() -> INSTANCE.mapper.readValue(json, clazz));
     }
 
-    private final ObjectMapper mapper = new Jackson2ObjectMapperBuilder()
-            .dateFormat(new StdDateFormat())
-            .featuresToDisable(
-                    DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES,
-                    DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES,
-                    DeserializationFeature.FAIL_ON_NULL_CREATOR_PROPERTIES,
-                    SerializationFeature.WRITE_DATES_AS_TIMESTAMPS
-            )
-            .propertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+    // Field projections only: the fields that were not selected are left out instead of being
+    // written as null. Every other response keeps its nulls.
+    public static JsonNode valueToProjectedTree(final Object obj) {
+        return INSTANCE.projectionMapper.valueToTree(obj);
+    }
+
+    // Blackbird replaces reflective getter/setter calls with generated lambdas
+    private final ObjectMapper mapper = builder()
+            .modulesToInstall(new BlackbirdModule())
+            .build();
+
+    private final ObjectMapper projectionMapper = builder()
+            .serializationInclusion(JsonInclude.Include.NON_NULL)
+            .modulesToInstall(new BlackbirdModule())
             .build();
 
+    // the snake_case contract, without the bytecode generated accessors
+    public static Jackson2ObjectMapperBuilder builder() {
+        return new Jackson2ObjectMapperBuilder()
+                .dateFormat(new StdDateFormat())
+                .featuresToDisable(
+                        DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES,
+                        DeserializationFeature.FAIL_ON_NULL_FOR_PRIMITIVES,
+                        DeserializationFeature.FAIL_ON_NULL_CREATOR_PROPERTIES,
+                        SerializationFeature.WRITE_DATES_AS_TIMESTAMPS
+                )
+                .propertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    }
+
     private static <T> T invoke(final Callable<T> callable) {
         try {
             return callable.call();
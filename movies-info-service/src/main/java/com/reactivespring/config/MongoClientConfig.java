@@ -0,0 +1,28 @@
+package com.reactivespring.config;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import java.time.Duration;
+
+@Configuration
+public class MongoClientConfig {
+
+    // the template is looked up lazily, it is built on top of the client this listener is registered with
+    @Bean
+    public SlowQueryReporter slowQueryReporter(ObjectProvider<ReactiveMongoTemplate> reactiveMongoTemplate,
+                                               @Value("${mongodb.slowQuery.enabled:true}") boolean enabled,
+                                               @Value("${mongodb.slowQuery.threshold:100ms}") Duration threshold,
+                                               @Value("${mongodb.slowQuery.maxConcurrentExplains:2}") int maxConcurrentExplains) {
+        return new SlowQueryReporter(reactiveMongoTemplate, enabled, threshold, maxConcurrentExplains);
+    }
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer slowQueryReporterCustomizer(SlowQueryReporter slowQueryReporter) {
+        return builder -> builder.addCommandListener(slowQueryReporter);
+    }
+}
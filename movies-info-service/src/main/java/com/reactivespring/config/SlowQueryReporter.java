@@ -0,0 +1,103 @@
+package com.reactivespring.config;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Logs every Mongo command that runs longer than {@code mongodb.slowQuery.threshold}, together
+ * with the query planner output of an explain of the same command.
+ */
+@Slf4j
+public class SlowQueryReporter implements CommandListener {
+
+    // commands the server can explain; everything else is never captured
+    private static final Set<String> EXPLAINABLE_COMMANDS = Set.of(
+            "find", "aggregate", "count", "distinct", "findAndModify", "update", "delete");
+
+    private final ObjectProvider<ReactiveMongoTemplate> reactiveMongoTemplate;
+    private final boolean enabled;
+    private final long thresholdNanos;
+    private final int maxConcurrentExplains;
+
+    // requestId -> command, only for commands still running
+    private final Map<Integer, BsonDocument> runningCommands = new ConcurrentHashMap<>();
+    private final AtomicInteger runningExplains = new AtomicInteger();
+
+    public SlowQueryReporter(ObjectProvider<ReactiveMongoTemplate> reactiveMongoTemplate,
+                             boolean enabled,
+                             Duration threshold,
+                             int maxConcurrentExplains) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.enabled = enabled;
+        this.thresholdNanos = threshold.toNanos();
+        this.maxConcurrentExplains = maxConcurrentExplains;
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        if (enabled && EXPLAINABLE_COMMANDS.contains(event.getCommandName())) {
+            // the event's document is backed by a pooled buffer that is released once the command is sent
+            runningCommands.put(event.getRequestId(), event.getCommand().clone());
+        }
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        completed(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        completed(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS));
+    }
+
+    private void completed(int requestId, String commandName, long elapsedNanos) {
+        var command = runningCommands.remove(requestId);
+        if (command == null || elapsedNanos < thresholdNanos) {
+            return;
+        }
+        var elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        // explains are extra load on a server that is already slow, so only a few run at a time
+        if (runningExplains.incrementAndGet() > maxConcurrentExplains) {
+            runningExplains.decrementAndGet();
+            log.warn("Slow query ({} ms) : {}", elapsedMillis, command.toJson());
+            return;
+        }
+        explain(command)
+                .doFinally(signalType -> runningExplains.decrementAndGet())
+                .subscribe(plan -> log.warn("Slow query ({} ms) : {} plan : {}", elapsedMillis, command.toJson(), plan.toJson()),
+                        ex -> log.warn("Slow query ({} ms) : {} explain failed : {}", elapsedMillis, command.toJson(), ex.getMessage()));
+    }
+
+    private Mono<Document> explain(BsonDocument command) {
+        var explainable = new BsonDocument();
+        // session, cluster time and other $-prefixed fields belong to the original round trip only
+        command.forEach((key, value) -> {
+            if (!key.startsWith("$") && !key.equals("lsid") && !key.equals("txnNumber")) {
+                explainable.put(key, value);
+            }
+        });
+        var explain = new BsonDocument("explain", explainable)
+                .append("verbosity", new BsonString("queryPlanner"));
+        return reactiveMongoTemplate.getObject()
+                .getMongoDatabase()
+                .flatMap(database -> Mono.from(database.runCommand(explain)))
+                .map(result -> result.get("queryPlanner", Document.class));
+    }
+}
@@ -1,75 +1,277 @@
 package com.reactivespring.controller;
 
+import com.reactivespring.config.Json;
+import com.reactivespring.domain.BulkIngestResult;
+import com.reactivespring.domain.ExpectedVersion;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.exception.InvalidPageRequestException;
+import com.reactivespring.exception.MovieInfoVersionMismatchException;
+import com.reactivespring.exception.StreamResyncException;
 import com.reactivespring.service.MovieInfoService;
+import com.reactivespring.stream.MovieInfoEvent;
+import com.reactivespring.stream.MovieInfoEventLog;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Sinks;
 
 import javax.validation.Valid;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/v1")
 @Slf4j
 public class MoviesInfoController {
 
-    Sinks.Many<MovieInfo> moviesInfoSink = Sinks.many().replay().latest();
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    @Value("${movieinfos.maxPageSize:1000}")
+    private int maxPageSize;
+
+    @Value("${movieinfos.search.maxResults:50}")
+    private int maxSearchResults;
+
     private MovieInfoService movieInfoService;
+    private MovieInfoEventLog movieInfoEventLog;
 
-    public MoviesInfoController(MovieInfoService movieInfoService) {
+    public MoviesInfoController(MovieInfoService movieInfoService, MovieInfoEventLog movieInfoEventLog) {
         this.movieInfoService = movieInfoService;
+        this.movieInfoEventLog = movieInfoEventLog;
     }
 
     @PostMapping("/movieinfos")
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<MovieInfo> addMovieInfo(@RequestBody @Valid MovieInfo movieInfo) {
         return movieInfoService.addMovieInfo(movieInfo)
-                .doOnNext(savedMovieInfo -> moviesInfoSink.tryEmitNext(savedMovieInfo))
+                .doOnNext(savedMovieInfo -> movieInfoEventLog.appendLocalWrite(savedMovieInfo))
                 .log();
     }
 
+    // per-line outcomes are reported in the body, so a partially failed ingest is still a 200
+    @PostMapping(value = "/movieinfos/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<BulkIngestResult> addMovieInfos(@RequestBody Flux<String> lines) {
+        return movieInfoService.addMovieInfos(lines)
+                .doOnNext(bulkLine -> {
+                    if (!bulkLine.isFailed()) {
+                        movieInfoEventLog.appendLocalWrite(bulkLine.getMovieInfo());
+                    }
+                })
+                .reduceWith(BulkIngestResult::new, BulkIngestResult::add);
+    }
+
     @GetMapping(value = "/movieinfos/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
     public Flux<MovieInfo> streamMovieInfos() {
-        return moviesInfoSink.asFlux().log();
+        return movieInfoEventLog.latestAndLive()
+                .map(MovieInfoEvent::getMovieInfo)
+                .log();
+    }
+
+    // Resumable variant: each event carries its sequence as the SSE id. A reconnecting
+    // EventSource sends it back as Last-Event-ID, which takes precedence over after.
+    @GetMapping(value = "/movieinfos/stream", params = "after", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<MovieInfo>> resumeMovieInfoStream(@RequestParam("after") String after,
+                                                                  @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId) {
+        return movieInfoEvents(lastEventId != null ? lastEventId : after);
+    }
+
+    @GetMapping(value = "/movieinfos/stream", headers = LAST_EVENT_ID_HEADER, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<MovieInfo>> resumeMovieInfoStream(@RequestHeader(LAST_EVENT_ID_HEADER) String lastEventId) {
+        return movieInfoEvents(lastEventId);
+    }
+
+    // A position that is no longer retained gets a single "resync" event whose id is the latest
+    // sequence: the client re-reads the collection, then resumes from that id.
+    private Flux<ServerSentEvent<MovieInfo>> movieInfoEvents(String position) {
+        long sequence;
+        try {
+            sequence = Long.parseLong(position.trim());
+        } catch (NumberFormatException ex) {
+            sequence = Long.MAX_VALUE;
+        }
+        return movieInfoEventLog.eventsAfter(sequence)
+                .map(event -> ServerSentEvent.builder(event.getMovieInfo())
+                        .id(String.valueOf(event.getSequence()))
+                        .build())
+                .onErrorResume(StreamResyncException.class, ex -> Mono.just(ServerSentEvent.<MovieInfo>builder()
+                        .event("resync")
+                        .id(String.valueOf(ex.getLatestSequence()))
+                        .build()));
     }
 
     @GetMapping("/movieinfos")
-    public Flux<MovieInfo> getAllMovieInfos(@RequestParam(value = "year", required = false) Integer year) {
+    public Flux<MovieInfo> getAllMovieInfos() {
+        return movieInfoService.getAllMovieInfos();
+    }
 
+    // Filtered lists are collected to carry a weak ETag over the id, version and incarnation of
+    // the documents they contain; a matching If-None-Match gets a 304 and the body is never written.
+    @GetMapping(value = "/movieinfos", params = {"ids", "!limit"})
+    public Mono<ResponseEntity<List<MovieInfo>>> getMovieInfosByIds(@RequestParam("ids") List<String> ids) {
+        return movieInfoService.getMovieInfosByIds(ids)
+                .collectList()
+                .map(movieInfos -> ResponseEntity.ok().eTag(weakETag(movieInfos)).body(movieInfos));
+    }
+
+    @GetMapping(value = "/movieinfos", params = {"year", "!ids", "!limit"})
+    public Mono<ResponseEntity<List<MovieInfo>>> getMovieInfoByYear(@RequestParam("year") Integer year) {
         log.info("year : {} " , year);
-        if(year!=null ){
-            return movieInfoService.getMovieInfoByYear(year).log();
+        return movieInfoService.getMovieInfoByYear(year)
+                .collectList()
+                .map(movieInfos -> ResponseEntity.ok().eTag(weakETag(movieInfos)).body(movieInfos));
+    }
+
+    private static String weakETag(List<MovieInfo> movieInfos) {
+        var versions = movieInfos.stream()
+                .map(movieInfo -> movieInfo.getMovieInfoId() + ":" + movieInfo.getVersion() + ":" + movieInfo.getIncarnation())
+                .collect(Collectors.joining(","));
+        return "W/\"" + DigestUtils.md5DigestAsHex(versions.getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
+    // Pages are keyed on _id alone. year and ids are rejected rather than silently dropped,
+    // which would page through the whole collection instead.
+    @GetMapping(value = "/movieinfos", params = "limit")
+    public Mono<ResponseEntity<List<?>>> getMovieInfoPage(@RequestParam("limit") int limit,
+                                                                  @RequestParam(value = "after", required = false) String after,
+                                                                  @RequestParam(value = "fields", required = false) List<String> fields,
+                                                                  @RequestParam(value = "year", required = false) String year,
+                                                                  @RequestParam(value = "ids", required = false) String ids) {
+        if (year != null || ids != null) {
+            throw new InvalidPageRequestException("limit cannot be combined with year or ids");
         }
-        return movieInfoService.getAllMovieInfos();
+        if (limit < 1 || limit > maxPageSize) {
+            throw new InvalidPageRequestException("limit must be between 1 and " + maxPageSize);
+        }
+        var projection = fields != null ? fields : List.<String>of();
+        // one extra document tells whether there is a next page without a second query
+        return movieInfoService.getMovieInfoPage(decodeCursor(after), limit + 1, projection)
+                .collectList()
+                .map(movieInfos -> {
+                    var response = ResponseEntity.ok();
+                    var page = movieInfos;
+                    if (movieInfos.size() > limit) {
+                        page = movieInfos.subList(0, limit);
+                        response.header(NEXT_CURSOR_HEADER, encodeCursor(page.get(limit - 1).getMovieInfoId()));
+                    }
+                    if (projection.isEmpty()) {
+                        return response.<List<?>>body(page);
+                    }
+                    return response.<List<?>>body(page.stream()
+                            .map(Json::valueToProjectedTree)
+                            .collect(Collectors.toList()));
+                });
+    }
+
+    private static String encodeCursor(String movieInfoId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(movieInfoId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidPageRequestException("after is not a valid cursor");
+        }
+    }
+
+    // typeahead over name and cast, q matches from the start of any word
+    @GetMapping("/movieinfos/search")
+    public Flux<MovieInfo> searchMovieInfos(@RequestParam("q") String q,
+                                            @RequestParam(value = "limit", defaultValue = "10") int limit) {
+        if (limit < 1 || limit > maxSearchResults) {
+            throw new InvalidPageRequestException("limit must be between 1 and " + maxSearchResults);
+        }
+        return movieInfoService.searchMovieInfos(q, limit);
     }
 
     @GetMapping("/movieinfos/{id}")
     public Mono<ResponseEntity<MovieInfo>> getMovieInfoById_approach2(@PathVariable("id") String id) {
 
         return movieInfoService.getMovieInfoById(id)
-                .map(ResponseEntity.ok()::body)
+                .map(MoviesInfoController::withETag)
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()))
                 .log();
     }
     @PutMapping("/movieinfos/{id}")
     @ResponseStatus(HttpStatus.OK)
-    public Mono<ResponseEntity<MovieInfo>> updateMovieInfo(@RequestBody MovieInfo movieInfo, @PathVariable String id) {
+    public Mono<ResponseEntity<MovieInfo>> updateMovieInfo(@RequestBody MovieInfo movieInfo, @PathVariable String id,
+                                                           @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
 
-        var updatedMovieInfoMono =  movieInfoService.updateMovieInfo(movieInfo, id);
+        var expectedVersion = expectedVersion(ifMatch);
+        var updatedMovieInfoMono = expectedVersion == null
+                ? movieInfoService.updateMovieInfo(movieInfo, id)
+                : movieInfoService.updateMovieInfo(movieInfo, id, expectedVersion);
         return updatedMovieInfoMono
-                .map(ResponseEntity.ok()::body)
+                .doOnNext(updatedMovieInfo -> movieInfoEventLog.appendLocalWrite(updatedMovieInfo))
+                .map(MoviesInfoController::withETag)
+                .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
+
+    }
+
+    @PatchMapping("/movieinfos/{id}")
+    public Mono<ResponseEntity<MovieInfo>> patchMovieInfo(@RequestBody MovieInfo movieInfo, @PathVariable String id,
+                                                          @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+
+        return movieInfoService.patchMovieInfo(movieInfo, id, expectedVersion(ifMatch))
+                .doOnNext(patchedMovieInfo -> movieInfoEventLog.appendLocalWrite(patchedMovieInfo))
+                .map(MoviesInfoController::withETag)
                 .switchIfEmpty(Mono.just(ResponseEntity.notFound().build()));
+    }
 
+    // The strong ETag is the version followed by the incarnation, so a document deleted and
+    // re-created under the same id, whose version starts over, gets a new tag. Neither needs the
+    // body: on a GET, WebFlux compares the tag with If-None-Match and answers 304 without writing it.
+    private static ResponseEntity<MovieInfo> withETag(MovieInfo movieInfo) {
+        if (movieInfo.getVersion() == null) {
+            return ResponseEntity.ok().body(movieInfo);
+        }
+        var eTag = movieInfo.getIncarnation() == null
+                ? String.valueOf(movieInfo.getVersion())
+                : movieInfo.getVersion() + "-" + movieInfo.getIncarnation();
+        return ResponseEntity.ok()
+                .eTag("\"" + eTag + "\"")
+                .body(movieInfo);
+    }
+
+    // accepts the tag as 3, "3", "3-<incarnation>" or W/"3"; * matches any version. Both parts
+    // of the tag are checked, a bare version only checks the version.
+    private static ExpectedVersion expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        var eTag = ifMatch.trim();
+        if (eTag.startsWith("W/")) {
+            eTag = eTag.substring(2);
+        }
+        eTag = eTag.replace("\"", "");
+        var separator = eTag.indexOf('-');
+        var version = separator > 0 ? eTag.substring(0, separator) : eTag;
+        var incarnation = separator > 0 ? eTag.substring(separator + 1) : null;
+        try {
+            return new ExpectedVersion(Long.valueOf(version), incarnation);
+        } catch (NumberFormatException ex) {
+            throw new MovieInfoVersionMismatchException("If-Match " + ifMatch + " does not match any version");
+        }
     }
 
     @DeleteMapping("/movieinfos/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     public Mono<Void> deleteMovieInfoById(@PathVariable String id) {
-        return movieInfoService.deleteMovieInfoById(id).log();
+        return movieInfoService.deleteMovieInfoById(id)
+                .doOnSuccess(deleted -> movieInfoEventLog.appendLocalWrite(MovieInfo.tombstone(id)))
+                .log();
     }
 }
@@ -0,0 +1,40 @@
+package com.reactivespring.deadline;
+
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Remaining time budget of the caller, received as milliseconds in the {@value #HEADER} header
+ * and carried in the Reactor context for the rest of the request.
+ */
+public final class Deadline {
+
+    public static final String HEADER = "X-Deadline-Ms";
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos());
+    }
+
+    public static Optional<Deadline> current(ContextView context) {
+        return context.getOrEmpty(Deadline.class);
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+    }
+
+    // Mongo aborts the query server side once maxTimeMS is spent, instead of scanning for nobody.
+    public static Query applyTo(Query query, ContextView context) {
+        current(context).ifPresent(deadline -> query.maxTime(Duration.ofMillis(Math.max(1, deadline.remaining().toMillis()))));
+        return query;
+    }
+}
@@ -0,0 +1,45 @@
+package com.reactivespring.deadline;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+@Component
+@Slf4j
+public class DeadlineWebFilter implements WebFilter {
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        var budgetMillis = exchange.getRequest().getHeaders().getFirst(Deadline.HEADER);
+        if (budgetMillis == null) {
+            return chain.filter(exchange);
+        }
+        Duration budget;
+        try {
+            budget = Duration.ofMillis(Long.parseLong(budgetMillis));
+        } catch (NumberFormatException ex) {
+            return chain.filter(exchange);
+        }
+        var deadline = Deadline.after(budget);
+        // the timeout cancels whatever is still running, including open Mongo cursors
+        return chain.filter(exchange)
+                .timeout(budget)
+                .contextWrite(context -> context.put(Deadline.class, deadline))
+                .onErrorResume(TimeoutException.class, ex -> {
+                    log.info("Deadline of {} ms exceeded for {}", budgetMillis, exchange.getRequest().getPath());
+                    var response = exchange.getResponse();
+                    if (response.isCommitted()) {
+                        return Mono.error(ex);
+                    }
+                    response.setStatusCode(HttpStatus.GATEWAY_TIMEOUT);
+                    return response.setComplete();
+                });
+    }
+}
@@ -0,0 +1,34 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkIngestResult {
+
+    private long inserted;
+    private List<LineFailure> failures = new ArrayList<>();
+
+    public BulkIngestResult add(BulkLine bulkLine) {
+        if (bulkLine.isFailed()) {
+            failures.add(new LineFailure(bulkLine.getLine(), bulkLine.getReason()));
+        } else {
+            inserted++;
+        }
+        return this;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LineFailure {
+        private long line;
+        private String reason;
+    }
+}
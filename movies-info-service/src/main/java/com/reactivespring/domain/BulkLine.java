@@ -0,0 +1,28 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// outcome of one line of a bulk ingest request; reason is set once the line has failed
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkLine {
+
+    private long line;
+    private MovieInfo movieInfo;
+    private String reason;
+
+    public static BulkLine parsed(long line, MovieInfo movieInfo) {
+        return new BulkLine(line, movieInfo, null);
+    }
+
+    public static BulkLine failed(long line, String reason) {
+        return new BulkLine(line, null, reason);
+    }
+
+    public boolean isFailed() {
+        return reason != null;
+    }
+}
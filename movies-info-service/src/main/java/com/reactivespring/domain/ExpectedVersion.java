@@ -0,0 +1,13 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// what an If-Match names: a version and, unless the tag predates it, the incarnation it was read from
+@Data
+@AllArgsConstructor
+public class ExpectedVersion {
+
+    private Long version;
+    private String incarnation;
+}
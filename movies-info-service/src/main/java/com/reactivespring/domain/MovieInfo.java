@@ -1,9 +1,14 @@
 package com.reactivespring.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.Transient;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import javax.validation.constraints.NotBlank;
@@ -20,12 +25,42 @@ public class MovieInfo {
 
     @Id
     private String movieInfoId;
+    @Indexed(unique = true)
     @NotBlank(message = "movieInfo.name must be present")
     private String name;
+    @Indexed
     @NotNull
     @Positive(message = "movieInfo.year must be a positive value")
     private Integer year;
+    // multikey: one index entry per cast member
+    @Indexed
     @NotNull
     private List<@NotBlank(message = "movieInfo.cast must be present") String> cast;
     private LocalDate releaseDate;
+    // bumped on every write, compared against If-Match for optimistic concurrency
+    @Version
+    private Long version;
+    // set once when the document is inserted, so a document deleted and re-created under the
+    // same id, whose version starts over, is still told apart by its ETag
+    @JsonIgnore
+    private String incarnation;
+    // only set on the tombstone streamed for a deleted document, never stored
+    @Transient
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean deleted;
+
+    public MovieInfo(String movieInfoId, String name, Integer year, List<String> cast, LocalDate releaseDate) {
+        this(movieInfoId, name, year, cast, releaseDate, null);
+    }
+
+    public MovieInfo(String movieInfoId, String name, Integer year, List<String> cast, LocalDate releaseDate, Long version) {
+        this(movieInfoId, name, year, cast, releaseDate, version, null, null);
+    }
+
+    public static MovieInfo tombstone(String movieInfoId) {
+        var movieInfo = new MovieInfo();
+        movieInfo.setMovieInfoId(movieInfoId);
+        movieInfo.setDeleted(true);
+        return movieInfo;
+    }
 }
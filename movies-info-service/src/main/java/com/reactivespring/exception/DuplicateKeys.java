@@ -0,0 +1,30 @@
+package com.reactivespring.exception;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Client facing reason for a duplicate key error, chosen by the unique index it violated. The
+ * index is only named in the server's message ("E11000 duplicate key error collection: ...
+ * index: name dup key: ..."), for single writes and bulk write errors alike.
+ */
+public final class DuplicateKeys {
+
+    public static final int DUPLICATE_KEY = 11000;
+
+    private static final Pattern INDEX = Pattern.compile("index: (\\S+) dup key");
+    private static final Map<String, String> REASONS = Map.of(
+            "_id_", "movieInfo.movieInfoId must be unique",
+            "name", "movieInfo.name must be unique");
+
+    private DuplicateKeys() {
+    }
+
+    public static String reason(String serverMessage) {
+        var matcher = INDEX.matcher(serverMessage != null ? serverMessage : "");
+        if (!matcher.find()) {
+            return "movieInfo must be unique";
+        }
+        return REASONS.getOrDefault(matcher.group(1), "movieInfo must be unique on " + matcher.group(1));
+    }
+}
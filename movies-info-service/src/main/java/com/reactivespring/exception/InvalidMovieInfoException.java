@@ -0,0 +1,10 @@
+package com.reactivespring.exception;
+
+public class InvalidMovieInfoException extends RuntimeException{
+    private String message;
+
+    public InvalidMovieInfoException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
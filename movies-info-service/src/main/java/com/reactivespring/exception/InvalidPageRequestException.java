@@ -0,0 +1,10 @@
+package com.reactivespring.exception;
+
+public class InvalidPageRequestException extends RuntimeException{
+    private String message;
+
+    public InvalidPageRequestException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
@@ -0,0 +1,10 @@
+package com.reactivespring.exception;
+
+public class MovieInfoVersionMismatchException extends RuntimeException{
+    private String message;
+
+    public MovieInfoVersionMismatchException(String message) {
+        super(message);
+        this.message = message;
+    }
+}
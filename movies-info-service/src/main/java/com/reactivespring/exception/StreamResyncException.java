@@ -0,0 +1,15 @@
+package com.reactivespring.exception;
+
+// the requested resume position is no longer (or not yet) in the event log
+public class StreamResyncException extends RuntimeException{
+    private final long latestSequence;
+
+    public StreamResyncException(long latestSequence) {
+        super("Resume position is not retained, resync from sequence " + latestSequence);
+        this.latestSequence = latestSequence;
+    }
+
+    public long getLatestSequence() {
+        return latestSequence;
+    }
+}
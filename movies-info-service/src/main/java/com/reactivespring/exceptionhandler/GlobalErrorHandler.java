@@ -1,8 +1,13 @@
 package com.reactivespring.exceptionhandler;
 
+import com.reactivespring.exception.DuplicateKeys;
+import com.reactivespring.exception.InvalidMovieInfoException;
+import com.reactivespring.exception.InvalidPageRequestException;
 import com.reactivespring.exception.MovieInfoNotFoundException;
+import com.reactivespring.exception.MovieInfoVersionMismatchException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.support.DefaultMessageSourceResolvable;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
@@ -32,4 +37,28 @@ public class GlobalErrorHandler {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
     }
 
-}
\ No newline at end of file
+    @ExceptionHandler(InvalidPageRequestException.class)
+    public ResponseEntity<String> handleInvalidPageRequestException(InvalidPageRequestException ex){
+        log.error("Exception caught in handleInvalidPageRequestException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(DuplicateKeyException.class)
+    public ResponseEntity<String> handleDuplicateKeyException(DuplicateKeyException ex){
+        log.error("Exception caught in handleDuplicateKeyException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(DuplicateKeys.reason(ex.getMessage()));
+    }
+
+    @ExceptionHandler(InvalidMovieInfoException.class)
+    public ResponseEntity<String> handleInvalidMovieInfoException(InvalidMovieInfoException ex){
+        log.error("Exception caught in handleInvalidMovieInfoException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(MovieInfoVersionMismatchException.class)
+    public ResponseEntity<String> handleMovieInfoVersionMismatchException(MovieInfoVersionMismatchException ex){
+        log.error("Exception caught in handleMovieInfoVersionMismatchException :  {} " ,ex.getMessage(),  ex);
+        return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(ex.getMessage());
+    }
+
+}
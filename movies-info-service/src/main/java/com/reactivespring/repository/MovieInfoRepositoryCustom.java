@@ -0,0 +1,10 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.MovieInfo;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+public interface MovieInfoRepositoryCustom {
+
+    Flux<MovieInfo> findWithDeadline(Query query);
+}
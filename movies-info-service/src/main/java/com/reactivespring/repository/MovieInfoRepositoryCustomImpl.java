@@ -0,0 +1,21 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.deadline.Deadline;
+import com.reactivespring.domain.MovieInfo;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+public class MovieInfoRepositoryCustomImpl implements MovieInfoRepositoryCustom {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public MovieInfoRepositoryCustomImpl(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Override
+    public Flux<MovieInfo> findWithDeadline(Query query) {
+        return Flux.deferContextual(context -> reactiveMongoTemplate.find(Deadline.applyTo(query, context), MovieInfo.class));
+    }
+}
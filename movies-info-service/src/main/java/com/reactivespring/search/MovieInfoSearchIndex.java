@@ -0,0 +1,121 @@
+package com.reactivespring.search;
+
+import com.reactivespring.domain.MovieInfo;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory prefix index over {@code MovieInfo.name} and {@code cast}, for typeahead.
+ * Every word suffix of a name or cast member is a term ("the dark knight", "dark knight",
+ * "knight"), so a query matches from the start of any word. Terms are kept sorted, which
+ * makes all the terms sharing a prefix one contiguous range: a lookup is a log(n) seek
+ * followed by a scan that stops after {@code limit} movies.
+ */
+@Component
+public class MovieInfoSearchIndex {
+
+    private static final char SEPARATOR = '\u0000';
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+|\\p{Cntrl}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    // "<term>\0<movieInfoId>", one entry per term of each movie
+    private final ConcurrentSkipListSet<String> terms = new ConcurrentSkipListSet<>();
+    // movieInfoId -> indexed MovieInfo
+    private final ConcurrentHashMap<String, MovieInfo> movieInfos = new ConcurrentHashMap<>();
+
+    // Writes reach the index from the service and from the change stream, in no guaranteed
+    // order, so an older version never replaces a newer one.
+    public void put(MovieInfo movieInfo) {
+        var movieInfoId = movieInfo.getMovieInfoId();
+        if (movieInfoId == null) {
+            return;
+        }
+        movieInfos.compute(movieInfoId, (id, current) -> {
+            if (current != null && version(current) > version(movieInfo)) {
+                return current;
+            }
+            if (current != null) {
+                termsOf(current).forEach(term -> terms.remove(term + SEPARATOR + id));
+            }
+            termsOf(movieInfo).forEach(term -> terms.add(term + SEPARATOR + id));
+            return movieInfo;
+        });
+    }
+
+    public void remove(String movieInfoId) {
+        movieInfos.computeIfPresent(movieInfoId, (id, current) -> {
+            termsOf(current).forEach(term -> terms.remove(term + SEPARATOR + id));
+            return null;
+        });
+    }
+
+    public void clear() {
+        movieInfos.clear();
+        terms.clear();
+    }
+
+    public int size() {
+        return movieInfos.size();
+    }
+
+    // movies whose name or cast has a word starting with the query, ordered by the matching term
+    public List<MovieInfo> search(String query, int limit) {
+        var prefix = normalize(query);
+        if (prefix.isEmpty()) {
+            return List.of();
+        }
+        var ids = new LinkedHashSet<String>();
+        for (var entry : terms.tailSet(prefix)) {
+            if (ids.size() == limit || !entry.startsWith(prefix)) {
+                break;
+            }
+            ids.add(entry.substring(entry.lastIndexOf(SEPARATOR) + 1));
+        }
+        return ids.stream()
+                .map(movieInfos::get)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    private static Set<String> termsOf(MovieInfo movieInfo) {
+        var values = new ArrayList<String>();
+        values.add(movieInfo.getName());
+        if (movieInfo.getCast() != null) {
+            values.addAll(movieInfo.getCast());
+        }
+        var termSet = new LinkedHashSet<String>();
+        values.stream()
+                .filter(Objects::nonNull)
+                .map(MovieInfoSearchIndex::normalize)
+                .filter(value -> !value.isEmpty())
+                .forEach(value -> {
+                    var words = value.split(" ");
+                    for (int i = 0; i < words.length; i++) {
+                        termSet.add(String.join(" ", Arrays.asList(words).subList(i, words.length)));
+                    }
+                });
+        return termSet;
+    }
+
+    // case and accent insensitive: "Amélie" is found by "ame"
+    static String normalize(String value) {
+        var decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+        var stripped = MARKS.matcher(decomposed).replaceAll("");
+        return WHITESPACE.matcher(stripped).replaceAll(" ").trim().toLowerCase();
+    }
+
+    private static long version(MovieInfo movieInfo) {
+        return movieInfo.getVersion() != null ? movieInfo.getVersion() : -1;
+    }
+}
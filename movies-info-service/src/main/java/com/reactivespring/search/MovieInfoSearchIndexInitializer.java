@@ -0,0 +1,40 @@
+package com.reactivespring.search;
+
+import com.reactivespring.repository.MovieInfoRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Loads every MovieInfo into {@link MovieInfoSearchIndex} before the application starts
+ * serving; from then on the index follows the writes made through {@code MovieInfoService}.
+ */
+@Component
+@Slf4j
+public class MovieInfoSearchIndexInitializer implements SmartInitializingSingleton {
+
+    private final MovieInfoRepository movieInfoRepository;
+    private final MovieInfoSearchIndex movieInfoSearchIndex;
+    private final Duration rebuildTimeout;
+
+    public MovieInfoSearchIndexInitializer(MovieInfoRepository movieInfoRepository,
+                                           MovieInfoSearchIndex movieInfoSearchIndex,
+                                           @Value("${movieinfos.search.rebuildTimeout:2m}") Duration rebuildTimeout) {
+        this.movieInfoRepository = movieInfoRepository;
+        this.movieInfoSearchIndex = movieInfoSearchIndex;
+        this.rebuildTimeout = rebuildTimeout;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        movieInfoSearchIndex.clear();
+        var indexed = movieInfoRepository.findAll()
+                .doOnNext(movieInfoSearchIndex::put)
+                .count()
+                .block(rebuildTimeout);
+        log.info("Indexed {} MovieInfos for search", indexed);
+    }
+}
@@ -1,51 +1,324 @@
 package com.reactivespring.service;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import com.reactivespring.domain.BulkLine;
+import com.reactivespring.domain.ExpectedVersion;
 import com.reactivespring.domain.MovieInfo;
 import com.reactivespring.repository.MovieInfoRepository;
+import com.reactivespring.search.MovieInfoSearchIndex;
+import com.reactivespring.exception.DuplicateKeys;
+import com.reactivespring.exception.InvalidMovieInfoException;
+import com.reactivespring.exception.InvalidPageRequestException;
+import com.reactivespring.exception.MovieInfoVersionMismatchException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.schema.JsonSchemaObject;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import javax.validation.ConstraintViolation;
+import javax.validation.Validator;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
 @Service
 @Slf4j
 public class MovieInfoService {
 
+    // json name -> document property
+    private static final Map<String, String> PROJECTABLE_FIELDS = Map.of(
+            "name", "name",
+            "year", "year",
+            "cast", "cast",
+            "release_date", "releaseDate");
+
+
     private MovieInfoRepository movieInfoRepository;
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+    private ObjectMapper objectMapper;
+    private Validator validator;
+    private MovieInfoSearchIndex movieInfoSearchIndex;
+    private int bulkBatchSize;
+
+    // movieInfoId -> MovieInfo, null when disabled
+    private AsyncCache<String, MovieInfo> cache;
 
-    public MovieInfoService(MovieInfoRepository movieInfoRepository) {
+    public MovieInfoService(MovieInfoRepository movieInfoRepository,
+                            ReactiveMongoTemplate reactiveMongoTemplate,
+                            ObjectMapper objectMapper,
+                            Validator validator,
+                            MovieInfoSearchIndex movieInfoSearchIndex,
+                            MeterRegistry meterRegistry,
+                            @Value("${movieinfos.bulk.batchSize:500}") int bulkBatchSize,
+                            @Value("${movieinfos.cache.enabled:true}") boolean cacheEnabled,
+                            @Value("${movieinfos.cache.maxSize:10000}") long cacheMaxSize,
+                            @Value("${movieinfos.cache.ttl:10m}") Duration cacheTtl) {
         this.movieInfoRepository = movieInfoRepository;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.movieInfoSearchIndex = movieInfoSearchIndex;
+        this.bulkBatchSize = bulkBatchSize;
+        if (cacheEnabled) {
+            this.cache = Caffeine.newBuilder()
+                    .maximumSize(cacheMaxSize)
+                    .expireAfterWrite(cacheTtl)
+                    .recordStats()
+                    .buildAsync();
+            // cache.gets{result=hit|miss}, cache.load.duration, cache.evictions, ...
+            CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), "movieInfo");
+            Gauge.builder("movieinfos.cache.hit.ratio", cache, c -> c.synchronous().stats().hitRate())
+                    .register(meterRegistry);
+        }
     }
 
     public Mono<MovieInfo> addMovieInfo(MovieInfo movieInfo) {
-        return movieInfoRepository.save(movieInfo);
+        movieInfo.setIncarnation(new ObjectId().toHexString());
+        return movieInfoRepository.save(movieInfo)
+                .doOnNext(movieInfoSearchIndex::put);
+    }
+
+    // One NDJSON line per MovieInfo. concatMap with a prefetch of one batch only asks the request
+    // body for more lines once the previous batch is written, so the body is never fully buffered.
+    public Flux<BulkLine> addMovieInfos(Flux<String> lines) {
+        return lines.index()
+                .filter(line -> !line.getT2().isBlank())
+                .map(line -> parse(line.getT1() + 1, line.getT2()))
+                .buffer(bulkBatchSize)
+                .concatMap(this::insertBatch, 1);
+    }
+
+    private BulkLine parse(long lineNumber, String line) {
+        MovieInfo movieInfo;
+        try {
+            movieInfo = objectMapper.readValue(line, MovieInfo.class);
+        } catch (JsonProcessingException ex) {
+            return BulkLine.failed(lineNumber, "invalid json : " + ex.getOriginalMessage());
+        }
+        var violations = validator.validate(movieInfo);
+        if (!violations.isEmpty()) {
+            return BulkLine.failed(lineNumber, violations.stream()
+                    .map(ConstraintViolation::getMessage)
+                    .sorted()
+                    .collect(Collectors.joining(",")));
+        }
+        return BulkLine.parsed(lineNumber, movieInfo);
+    }
+
+    // Unordered, so one bad document does not stop the rest of the batch from being written.
+    private Flux<BulkLine> insertBatch(List<BulkLine> batch) {
+        var parsed = batch.stream()
+                .filter(bulkLine -> !bulkLine.isFailed())
+                .collect(Collectors.toList());
+        if (parsed.isEmpty()) {
+            return Flux.fromIterable(batch);
+        }
+        var documents = parsed.stream()
+                .map(bulkLine -> {
+                    bulkLine.getMovieInfo().setVersion(0L);
+                    bulkLine.getMovieInfo().setIncarnation(new ObjectId().toHexString());
+                    var document = new Document();
+                    reactiveMongoTemplate.getConverter().write(bulkLine.getMovieInfo(), document);
+                    return document;
+                })
+                .collect(Collectors.toList());
+
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(MovieInfo.class))
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+                .map(result -> Map.<Integer, String>of())
+                .onErrorResume(ex -> Mono.just(writeErrors(ex, documents.size())))
+                .flatMapMany(writeErrors -> {
+                    for (int i = 0; i < parsed.size(); i++) {
+                        var bulkLine = parsed.get(i);
+                        if (writeErrors.containsKey(i)) {
+                            bulkLine.setReason(writeErrors.get(i));
+                        } else {
+                            bulkLine.getMovieInfo().setMovieInfoId(documents.get(i).get("_id").toString());
+                            movieInfoSearchIndex.put(bulkLine.getMovieInfo());
+                        }
+                    }
+                    return Flux.fromIterable(batch);
+                });
+    }
+
+    // document index within the batch -> reason it was not written
+    private static Map<Integer, String> writeErrors(Throwable ex, int batchSize) {
+        if (ex instanceof MongoBulkWriteException) {
+            return ((MongoBulkWriteException) ex).getWriteErrors().stream()
+                    .collect(Collectors.toMap(BulkWriteError::getIndex,
+                            error -> error.getCode() == DuplicateKeys.DUPLICATE_KEY ? DuplicateKeys.reason(error.getMessage()) : error.getMessage()));
+        }
+        log.error("Bulk insert of {} documents failed : {}", batchSize, ex.getMessage());
+        return IntStream.range(0, batchSize)
+                .boxed()
+                .collect(Collectors.toMap(Function.identity(), index -> ex.getMessage() != null ? ex.getMessage() : ex.toString()));
     }
 
     public Flux<MovieInfo> getAllMovieInfos() {
-        return movieInfoRepository.findAll();
+        return movieInfoRepository.findWithDeadline(new Query());
     }
 
     public Flux<MovieInfo> getMovieInfoByYear(Integer year){
 
-        return movieInfoRepository.findByYear(year);
+        return movieInfoRepository.findWithDeadline(query(where("year").is(year)));
+    }
+
+    public Flux<MovieInfo> getMovieInfosByIds(List<String> ids) {
+        return movieInfoRepository.findWithDeadline(query(where("movieInfoId").in(ids)));
+    }
+
+    // Served from memory, Mongo is not queried.
+    public Flux<MovieInfo> searchMovieInfos(String query, int limit) {
+        return Flux.defer(() -> Flux.fromIterable(movieInfoSearchIndex.search(query, limit)));
     }
 
+    // Keyset pagination: each page resumes after the last _id of the previous one, so a page
+    // costs an index range scan no matter how deep into the collection it is.
+    public Flux<MovieInfo> getMovieInfoPage(String afterId, int limit, List<String> fields) {
+        var query = new Query()
+                .with(Sort.by(Sort.Direction.ASC, "movieInfoId"))
+                .limit(limit);
+        if (afterId != null) {
+            query.addCriteria(after(afterId));
+        }
+        fields.forEach(field -> query.fields().include(projectableField(field)));
+        return movieInfoRepository.findWithDeadline(query);
+    }
+
+    // Ids are either ObjectIds or client supplied strings. Mongo sorts all strings before all
+    // ObjectIds and $gt only matches values of the same type, so a string cursor also has to
+    // let every ObjectId through.
+    private static Criteria after(String afterId) {
+        if (ObjectId.isValid(afterId)) {
+            return where("movieInfoId").gt(new ObjectId(afterId));
+        }
+        return new Criteria().orOperator(
+                where("movieInfoId").gt(afterId),
+                where("movieInfoId").type(JsonSchemaObject.Type.objectIdType()));
+    }
+
+    private static String projectableField(String field) {
+        var property = PROJECTABLE_FIELDS.get(field);
+        if (property == null) {
+            throw new InvalidPageRequestException("fields must be one of " + PROJECTABLE_FIELDS.keySet());
+        }
+        return property;
+    }
+
+    // Misses and not-found results are never cached. A load is registered in the cache before it
+    // queries Mongo and writes invalidate only after they are applied, so a load that read the
+    // old document is always discarded by the invalidation that follows the write.
     public Mono<MovieInfo> getMovieInfoById(String id) {
-        return movieInfoRepository.findById(id);
+        if (cache == null) {
+            return movieInfoRepository.findById(id);
+        }
+        return Mono.fromCompletionStage(() -> cache.get(id, (key, executor) -> movieInfoRepository.findById(key).toFuture()));
+    }
+
+    public void evictCachedMovieInfo(String id) {
+        if (cache != null) {
+            cache.synchronous().invalidate(id);
+        }
     }
 
     public Mono<MovieInfo> updateMovieInfo(MovieInfo updateMovieInfo, String id) {
-        return movieInfoRepository.findById(id)
-                .flatMap(movieInfo -> {
-                    movieInfo.setCast(updateMovieInfo.getCast());
-                    movieInfo.setName(updateMovieInfo.getName());
-                    movieInfo.setReleaseDate(updateMovieInfo.getReleaseDate());
-                    movieInfo.setYear(updateMovieInfo.getYear());
-                    return movieInfoRepository.save(movieInfo);
-                });
+        return updateMovieInfo(updateMovieInfo, id, null);
+    }
+
+    public Mono<MovieInfo> updateMovieInfo(MovieInfo updateMovieInfo, String id, ExpectedVersion expectedVersion) {
+        var update = new Update()
+                .set("name", updateMovieInfo.getName())
+                .set("year", updateMovieInfo.getYear())
+                .set("cast", updateMovieInfo.getCast())
+                .set("releaseDate", updateMovieInfo.getReleaseDate());
+        return modify(id, expectedVersion, update);
+    }
+
+    // Only the supplied fields are $set, each checked against its own constraints.
+    public Mono<MovieInfo> patchMovieInfo(MovieInfo patch, String id, ExpectedVersion expectedVersion) {
+        var update = new Update();
+        var violations = new TreeSet<String>();
+        setIfPresent(update, violations, "name", patch.getName());
+        setIfPresent(update, violations, "year", patch.getYear());
+        setIfPresent(update, violations, "cast", patch.getCast());
+        setIfPresent(update, violations, "releaseDate", patch.getReleaseDate());
+        if (!violations.isEmpty()) {
+            return Mono.error(new InvalidMovieInfoException(String.join(",", violations)));
+        }
+        return modify(id, expectedVersion, update);
+    }
+
+    private void setIfPresent(Update update, Set<String> violations, String property, Object value) {
+        if (value == null) {
+            return;
+        }
+        validator.validateValue(MovieInfo.class, property, value)
+                .forEach(violation -> violations.add(violation.getMessage()));
+        update.set(property, value);
+    }
+
+    // A single findAndModify returning the post-image, instead of findById followed by save.
+    // With an expected version a stale write, or one aimed at an earlier incarnation of the
+    // document, matches nothing; only then is existence checked, to tell a version mismatch from
+    // a missing document.
+    private Mono<MovieInfo> modify(String id, ExpectedVersion expectedVersion, Update update) {
+        var query = query(where("movieInfoId").is(id));
+        if (expectedVersion != null) {
+            query.addCriteria(where("version").is(expectedVersion.getVersion()));
+            if (expectedVersion.getIncarnation() != null) {
+                query.addCriteria(where("incarnation").is(expectedVersion.getIncarnation()));
+            }
+        }
+        return reactiveMongoTemplate.findAndModify(query, update.inc("version", 1),
+                        FindAndModifyOptions.options().returnNew(true), MovieInfo.class)
+                .doOnNext(modified -> {
+                    evictCachedMovieInfo(id);
+                    movieInfoSearchIndex.put(modified);
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    if (expectedVersion == null) {
+                        return Mono.empty();
+                    }
+                    return movieInfoRepository.existsById(id)
+                            .flatMap(exists -> exists
+                                    ? Mono.error(new MovieInfoVersionMismatchException(
+                                            "MovieInfo " + id + " is no longer at version " + expectedVersion.getVersion()))
+                                    : Mono.empty());
+                }));
     }
 
     public Mono<Void> deleteMovieInfoById(String id) {
-        return movieInfoRepository.deleteById(id);
+        return movieInfoRepository.deleteById(id)
+                .doOnSuccess(deleted -> {
+                    evictCachedMovieInfo(id);
+                    movieInfoSearchIndex.remove(id);
+                });
     }
 }
@@ -0,0 +1,126 @@
+package com.reactivespring.stream;
+
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.search.MovieInfoSearchIndex;
+import com.reactivespring.service.MovieInfoService;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonTimestamp;
+import org.bson.BsonValue;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Feeds {@link MovieInfoEventLog} from a change stream on the movieInfo collection, so every
+ * replica of the service sees every write, whichever replica it hit. Requires a replica set.
+ */
+@Component
+@ConditionalOnProperty(name = "movieinfos.stream.source", havingValue = "change-stream")
+@Slf4j
+public class MovieInfoChangeStreamListener {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final MovieInfoEventLog movieInfoEventLog;
+    private final MovieInfoService movieInfoService;
+    private final MovieInfoSearchIndex movieInfoSearchIndex;
+
+    // resume token of the last event appended to the log
+    private volatile BsonValue resumeToken;
+    private Disposable subscription;
+
+    public MovieInfoChangeStreamListener(ReactiveMongoTemplate reactiveMongoTemplate,
+                                         MovieInfoEventLog movieInfoEventLog,
+                                         MovieInfoService movieInfoService,
+                                         MovieInfoSearchIndex movieInfoSearchIndex) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.movieInfoEventLog = movieInfoEventLog;
+        this.movieInfoService = movieInfoService;
+        this.movieInfoSearchIndex = movieInfoSearchIndex;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeToChangeStream() {
+        // Watching starts at the current cluster time rather than whenever the cursor happens to be
+        // opened, so the log can vouch for every event after that point.
+        var startAt = clusterTime().block(Duration.ofSeconds(30));
+        movieInfoEventLog.startAfter(startAt.getValue() - 1);
+
+        subscription = Flux.defer(() -> watch(startAt))
+                .doOnNext(this::append)
+                .doOnError(ex -> log.warn("MovieInfo change stream failed, resuming : {}", ex.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30)))
+                .subscribe();
+    }
+
+    private Flux<ChangeStreamEvent<MovieInfo>> watch(BsonTimestamp startAt) {
+        var options = ChangeStreamOptions.builder()
+                .filter(Aggregation.newAggregation(
+                        Aggregation.match(where("operationType").in("insert", "update", "replace", "delete"))))
+                .fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+        // after a failure (e.g. a primary election) carry on right after the last appended event
+        var token = resumeToken;
+        if (token != null) {
+            options.resumeAfter(token);
+        } else {
+            options.resumeAt(startAt);
+        }
+        return reactiveMongoTemplate.changeStream(reactiveMongoTemplate.getCollectionName(MovieInfo.class),
+                options.build(), MovieInfo.class);
+    }
+
+    // A delete has no document, so it is appended as a tombstone that only holds the id.
+    // Evicting and indexing here also cover writes made through other replicas, which the
+    // local cache would otherwise only drop on expiry and the search index would never see.
+    private void append(ChangeStreamEvent<MovieInfo> event) {
+        var changeStreamDocument = event.getRaw();
+        if (changeStreamDocument != null && changeStreamDocument.getDocumentKey() != null) {
+            var movieInfoId = idOf(changeStreamDocument.getDocumentKey().get("_id"));
+            movieInfoService.evictCachedMovieInfo(movieInfoId);
+            if (event.getOperationType() == OperationType.DELETE) {
+                movieInfoSearchIndex.remove(movieInfoId);
+                movieInfoEventLog.append(MovieInfo.tombstone(movieInfoId), event.getBsonTimestamp().getValue());
+            }
+        }
+        var movieInfo = event.getBody();
+        if (movieInfo != null && event.getOperationType() != OperationType.DELETE) {
+            movieInfoSearchIndex.put(movieInfo);
+            movieInfoEventLog.append(movieInfo, event.getBsonTimestamp().getValue());
+        }
+        resumeToken = event.getResumeToken();
+    }
+
+    private static String idOf(BsonValue id) {
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue();
+    }
+
+    private Mono<BsonTimestamp> clusterTime() {
+        return reactiveMongoTemplate.executeCommand("{ ping: 1 }")
+                .flatMap(reply -> Mono.justOrEmpty(reply.get("operationTime", BsonTimestamp.class)))
+                .switchIfEmpty(Mono.error(new IllegalStateException(
+                        "movieinfos.stream.source=change-stream needs MongoDB to run as a replica set")));
+    }
+
+    @PreDestroy
+    public void unsubscribeFromChangeStream() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+    }
+}
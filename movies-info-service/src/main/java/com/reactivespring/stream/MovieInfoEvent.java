@@ -0,0 +1,15 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.domain.MovieInfo;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class MovieInfoEvent {
+
+    private long sequence;
+    private MovieInfo movieInfo;
+    // serialized size, counted against the byte cap of the event log
+    private int size;
+}
@@ -0,0 +1,144 @@
+package com.reactivespring.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.exception.StreamResyncException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.util.concurrent.Queues;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Recent movie info changes, each tagged with a monotonically increasing sequence, so a stream
+ * client that reconnects can resume where it left off instead of re-reading the collection.
+ * Retention is capped by both event count and serialized bytes.
+ *
+ * <p>With {@code movieinfos.stream.source=local} the log is fed by the writes of this instance and
+ * sequences are a local counter. With {@code change-stream} it is fed by
+ * {@link MovieInfoChangeStreamListener} and sequences are cluster times, which every replica
+ * agrees on, so a client can resume against any of them.
+ */
+@Component
+public class MovieInfoEventLog {
+
+    private final ObjectMapper objectMapper;
+    private final int maxEvents;
+    private final long maxBytes;
+    private final boolean changeStreamSource;
+
+    // guarded by this
+    private final ArrayDeque<MovieInfoEvent> events = new ArrayDeque<>();
+    private long retainedBytes;
+    private long lastSequence;
+    // every event with a greater sequence is still retained
+    private long completeAfter;
+
+    private final Sinks.Many<MovieInfoEvent> live = Sinks.many().multicast().directBestEffort();
+
+    public MovieInfoEventLog(ObjectMapper objectMapper,
+                             @Value("${movieinfos.stream.maxEvents:10000}") int maxEvents,
+                             @Value("${movieinfos.stream.maxBytes:8MB}") DataSize maxBytes,
+                             @Value("${movieinfos.stream.source:local}") String source) {
+        this.objectMapper = objectMapper;
+        this.maxEvents = maxEvents;
+        this.maxBytes = maxBytes.toBytes();
+        this.changeStreamSource = "change-stream".equals(source);
+    }
+
+    // a write made through this instance; with a change stream source it arrives from there instead
+    public void appendLocalWrite(MovieInfo movieInfo) {
+        if (!changeStreamSource) {
+            synchronized (this) {
+                append(movieInfo, lastSequence + 1);
+            }
+        }
+    }
+
+    // the log holds every event after sequence from now on
+    public synchronized void startAfter(long sequence) {
+        completeAfter = Math.max(completeAfter, sequence);
+        lastSequence = Math.max(lastSequence, sequence);
+    }
+
+    public synchronized MovieInfoEvent append(MovieInfo movieInfo, long sequence) {
+        var event = new MovieInfoEvent(sequence, movieInfo, sizeOf(movieInfo));
+        lastSequence = sequence;
+        events.addLast(event);
+        retainedBytes += event.getSize();
+        while (events.size() > maxEvents || (retainedBytes > maxBytes && events.size() > 1)) {
+            var evicted = events.removeFirst();
+            retainedBytes -= evicted.getSize();
+            completeAfter = evicted.getSequence();
+        }
+        // emitted under the lock, so live subscribers see events in sequence order
+        live.tryEmitNext(event);
+        return event;
+    }
+
+    public synchronized long latestSequence() {
+        return lastSequence;
+    }
+
+    // position just before the most recent event, or the resume point when there is none
+    private synchronized long latestPosition() {
+        return events.isEmpty() ? Math.max(lastSequence, completeAfter) : events.getLast().getSequence() - 1;
+    }
+
+    /**
+     * Every retained event after {@code sequence}, followed by live ones. Fails with
+     * {@link StreamResyncException} when events after {@code sequence} were already evicted.
+     */
+    public Flux<MovieInfoEvent> eventsAfter(long sequence) {
+        return Flux.defer(() -> {
+            // Subscribing to live events before taking the snapshot leaves no gap between the two;
+            // the overlap is filtered out by sequence below. A subscriber that falls more than
+            // maxEvents behind is completed and can resume from its last sequence.
+            var pending = Sinks.many().unicast().<MovieInfoEvent>onBackpressureBuffer(Queues.<MovieInfoEvent>get(maxEvents).get());
+            var liveSubscription = live.asFlux().subscribe(event -> {
+                if (pending.tryEmitNext(event).isFailure()) {
+                    pending.tryEmitComplete();
+                }
+            });
+
+            List<MovieInfoEvent> replay;
+            long replayedUpTo;
+            synchronized (this) {
+                // a local sequence beyond the last one comes from before a restart; cluster times
+                // beyond it are just events this replica has not seen yet
+                if (sequence < completeAfter || (!changeStreamSource && sequence > lastSequence)) {
+                    liveSubscription.dispose();
+                    return Flux.error(new StreamResyncException(Math.max(lastSequence, completeAfter)));
+                }
+                replay = events.stream()
+                        .filter(event -> event.getSequence() > sequence)
+                        .collect(Collectors.toList());
+                replayedUpTo = lastSequence;
+            }
+            return Flux.concat(Flux.fromIterable(replay),
+                            pending.asFlux().filter(event -> event.getSequence() > replayedUpTo))
+                    .doFinally(signalType -> liveSubscription.dispose());
+        });
+    }
+
+    // the most recent event, if any, followed by live ones
+    public Flux<MovieInfoEvent> latestAndLive() {
+        return Flux.defer(() -> eventsAfter(latestPosition()))
+                // the latest event was evicted in between, start over from the new latest
+                .onErrorResume(StreamResyncException.class, ex -> latestAndLive());
+    }
+
+    private int sizeOf(MovieInfo movieInfo) {
+        try {
+            return objectMapper.writeValueAsBytes(movieInfo).length;
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException("MovieInfo is not serializable", ex);
+        }
+    }
+}
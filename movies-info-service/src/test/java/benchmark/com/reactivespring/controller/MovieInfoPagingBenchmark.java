@@ -0,0 +1,154 @@
+package com.reactivespring.controller;
+
+import com.reactivespring.domain.MovieInfo;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Compares a full scan of GET /v1/movieinfos against keyset paged and projected reads on a
+ * seeded embedded Mongo. Run with {@code ./gradlew benchmark}; the document count can be
+ * changed with {@code -Dbenchmark.documents=...}.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@AutoConfigureWebTestClient
+@TestPropertySource(properties = "spring.mongodb.embedded.version=4.0.21")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@Slf4j
+class MovieInfoPagingBenchmark {
+
+    static String MOVIES_INFO_URL = "/v1/movieinfos";
+    static int DOCUMENTS = Integer.getInteger("benchmark.documents", 1_000_000);
+    static int PAGE_SIZE = 1000;
+
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @BeforeAll
+    void seed() {
+        webTestClient = webTestClient.mutate()
+                .responseTimeout(Duration.ofMinutes(10))
+                .build();
+        Flux.range(0, DOCUMENTS)
+                .map(i -> new MovieInfo(null, "Movie " + i, 1950 + i % 70,
+                        List.of("Actor " + i % 1000, "Actor " + (i + 1) % 1000, "Actor " + (i + 2) % 1000),
+                        LocalDate.of(1950 + i % 70, 1 + i % 12, 1 + i % 28)))
+                .buffer(10_000)
+                .concatMap(movieInfos -> reactiveMongoTemplate.insertAll(movieInfos))
+                .blockLast();
+    }
+
+    @AfterAll
+    void tearDown() {
+        reactiveMongoTemplate.dropCollection(MovieInfo.class).block();
+    }
+
+    @Test
+    void fullScanVersusPagedAndProjectedReads() {
+        var fullScan = measure(MOVIES_INFO_URL);
+        var firstPage = measure(MOVIES_INFO_URL + "?limit=" + PAGE_SIZE);
+        var firstPageProjected = measure(MOVIES_INFO_URL + "?limit=" + PAGE_SIZE + "&fields=name,year");
+        var allPages = walkPages("");
+        var allPagesProjected = walkPages("&fields=name,year");
+
+        log.info("documents: {}, page size: {}", DOCUMENTS, PAGE_SIZE);
+        log.info("full scan             : {}", fullScan);
+        log.info("first page            : {}", firstPage);
+        log.info("first page, projected : {}", firstPageProjected);
+        log.info("all pages             : {}", allPages);
+        log.info("all pages, projected  : {}", allPagesProjected);
+
+        assert firstPage.bytes < fullScan.bytes;
+        assert firstPageProjected.bytes < firstPage.bytes;
+        assert allPagesProjected.bytes < allPages.bytes;
+    }
+
+    private Sample measure(String uri) {
+        var start = System.nanoTime();
+        var page = fetch(uri);
+        return new Sample(1, page.bytes, System.nanoTime() - start);
+    }
+
+    private Sample walkPages(String projection) {
+        var start = System.nanoTime();
+        var requests = 0;
+        var bytes = 0L;
+        String cursor = null;
+        do {
+            var page = fetch(MOVIES_INFO_URL + "?limit=" + PAGE_SIZE + projection
+                    + (cursor != null ? "&after=" + cursor : ""));
+            requests++;
+            bytes += page.bytes;
+            cursor = page.nextCursor;
+        } while (cursor != null);
+        return new Sample(requests, bytes, System.nanoTime() - start);
+    }
+
+    // counts the body bytes as they arrive instead of aggregating the response in memory
+    private Page fetch(String uri) {
+        var result = webTestClient.get()
+                .uri(uri)
+                .exchange()
+                .expectStatus().is2xxSuccessful()
+                .returnResult(DataBuffer.class);
+        var bytes = result.getResponseBody()
+                .map(buffer -> {
+                    long size = buffer.readableByteCount();
+                    DataBufferUtils.release(buffer);
+                    return size;
+                })
+                .reduce(0L, Long::sum)
+                .block();
+        return new Page(bytes, result.getResponseHeaders().getFirst(MoviesInfoController.NEXT_CURSOR_HEADER));
+    }
+
+    private static class Page {
+        final long bytes;
+        final String nextCursor;
+
+        Page(long bytes, String nextCursor) {
+            this.bytes = bytes;
+            this.nextCursor = nextCursor;
+        }
+    }
+
+    private static class Sample {
+        final int requests;
+        final long bytes;
+        final long nanos;
+
+        Sample(int requests, long bytes, long nanos) {
+            this.requests = requests;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,d requests, %,d bytes, %,d ms total, %,.2f ms per request",
+                    requests, bytes, nanos / 1_000_000, nanos / 1_000_000.0 / requests);
+        }
+    }
+}
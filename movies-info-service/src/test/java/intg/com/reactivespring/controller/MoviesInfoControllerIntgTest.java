@@ -1,7 +1,10 @@
 package com.reactivespring.controller;
 
+import com.reactivespring.deadline.Deadline;
+import com.reactivespring.domain.BulkIngestResult;
 import com.reactivespring.domain.MovieInfo;
 import com.reactivespring.repository.MovieInfoRepository;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,16 +13,28 @@ import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ActiveProfiles("test")
@@ -33,6 +48,9 @@ class MoviesInfoControllerIntgTest {
     @Autowired
     WebTestClient webTestClient;
 
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+
     static String MOVIES_INFO_URL = "/v1/movieinfos";
 
     @BeforeEach
@@ -43,6 +61,7 @@ class MoviesInfoControllerIntgTest {
                         2008, List.of("Christian Bale", "HeathLedger"), LocalDate.parse("2008-07-18")),
                 new MovieInfo("abc", "Dark Knight Rises",
                         2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20")));
+        movieInfos.forEach(movieInfo -> movieInfo.setIncarnation(new ObjectId().toHexString()));
         repository.saveAll(movieInfos)
                 .blockLast();
     }
@@ -54,7 +73,7 @@ class MoviesInfoControllerIntgTest {
 
     @Test
     void addMovieInfo() {
-        final var movieInfo = new MovieInfo(null, "Batman Begins",
+        final var movieInfo = new MovieInfo(null, "Batman Forever",
                 2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
         webTestClient
                 .post()
@@ -71,10 +90,90 @@ class MoviesInfoControllerIntgTest {
                 });
     }
 
+    @Test
+    void addMovieInfos_bulk() {
+        //given
+        var lines = String.join("\n",
+                "{\"name\": \"Batman Forever\", \"year\": 1995, \"cast\": [\"Val Kilmer\"], \"release_date\": \"1995-06-16\"}",
+                "{\"name\": \"Batman Returns\", \"year\": 1992, \"cast\": [\"Michael Keaton\"], \"release_date\": \"1992-06-19\"}",
+                "{\"name\": \"Batman & Robin\", \"year\": 1997,",
+                "{\"name\": \"\", \"year\": -1, \"cast\": [\"George Clooney\"]}",
+                "",
+                "{\"name\": \"Batman Begins\", \"year\": 2005, \"cast\": [\"Christian Bale\"]}");
+
+        //when
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL + "/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(lines)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(BulkIngestResult.class)
+                .consumeWith(result -> {
+                    var bulkIngestResult = Objects.requireNonNull(result.getResponseBody());
+                    assertEquals(2, bulkIngestResult.getInserted());
+                    assertEquals(List.of(3L, 4L, 6L), bulkIngestResult.getFailures().stream()
+                            .map(BulkIngestResult.LineFailure::getLine)
+                            .collect(Collectors.toList()));
+                    assertEquals("movieInfo.name must be present,movieInfo.year must be a positive value",
+                            bulkIngestResult.getFailures().get(1).getReason());
+                    assertEquals("movieInfo.name must be unique", bulkIngestResult.getFailures().get(2).getReason());
+                });
+
+        //then
+        StepVerifier.create(repository.findAll())
+                .expectNextCount(5)
+                .verifyComplete();
+    }
+
+    @Test
+    void addMovieInfo_duplicateName() {
+        final var movieInfo = new MovieInfo(null, "Batman Begins",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT)
+                .expectBody(String.class)
+                .isEqualTo("movieInfo.name must be unique");
+    }
+
+    @Test
+    void addMovieInfo_duplicateId() {
+        final var movieInfo = new MovieInfo("abc", "Batman Forever",
+                1995, List.of("Val Kilmer"), LocalDate.parse("1995-06-16"));
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .bodyValue(movieInfo)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.CONFLICT)
+                .expectBody(String.class)
+                .isEqualTo("movieInfo.movieInfoId must be unique");
+    }
+
+    @Test
+    void declaredIndexesAreEnsured() {
+        var indexes = reactiveMongoTemplate.indexOps(MovieInfo.class)
+                .getIndexInfo()
+                .collectMap(IndexInfo::getName)
+                .block();
+
+        assert Objects.requireNonNull(indexes).get("name").isUnique();
+        assert indexes.containsKey("year");
+        assert indexes.containsKey("cast");
+    }
+
     @Test
     void getAllMovieInfos_Stream() {
 
-        var movieInfo = new MovieInfo(null, "Batman Begins",
+        var movieInfo = new MovieInfo(null, "Batman Returns",
                 2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"));
 
         webTestClient
@@ -109,6 +208,96 @@ class MoviesInfoControllerIntgTest {
 
     }
 
+    @Test
+    void deleteMovieInfo_streamsTombstone() {
+        //given
+        var tombstones = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/stream")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(MovieInfo.class)
+                .getResponseBody()
+                .filter(movieInfo -> Boolean.TRUE.equals(movieInfo.getDeleted()));
+
+        //when then
+        StepVerifier.create(tombstones)
+                .then(() -> webTestClient
+                        .delete()
+                        .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                        .exchange()
+                        .expectStatus()
+                        .isNoContent())
+                .assertNext(movieInfo -> {
+                    assertEquals("abc", movieInfo.getMovieInfoId());
+                    assertNull(movieInfo.getName());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void resumeMovieInfoStream() {
+        //given
+        var movieInfo = new MovieInfo(null, "Batman Returns",
+                1992, List.of("Michael Keaton"), LocalDate.parse("1992-06-19"));
+        webTestClient.post().uri(MOVIES_INFO_URL).bodyValue(movieInfo).exchange().expectStatus().isCreated();
+        var lastEventId = Objects.requireNonNull(webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/stream?after=0")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody()
+                .filter(event -> event.data() != null && "Batman Returns".equals(event.data().getName()))
+                .blockFirst(Duration.ofSeconds(5)))
+                .id();
+
+        //when
+        movieInfo.setName("Batman Forever");
+        webTestClient.post().uri(MOVIES_INFO_URL).bodyValue(movieInfo).exchange().expectStatus().isCreated();
+        var resumedFlux = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/stream")
+                .header(MoviesInfoController.LAST_EVENT_ID_HEADER, lastEventId)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody();
+
+        //then
+        StepVerifier.create(resumedFlux)
+                .assertNext(event -> {
+                    assertEquals(Long.parseLong(Objects.requireNonNull(lastEventId)) + 1, Long.parseLong(Objects.requireNonNull(event.id())));
+                    assertEquals("Batman Forever", Objects.requireNonNull(event.data()).getName());
+                })
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void resumeMovieInfoStream_resync() {
+        var eventsFlux = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/stream")
+                .header(MoviesInfoController.LAST_EVENT_ID_HEADER, String.valueOf(Long.MAX_VALUE))
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody();
+
+        StepVerifier.create(eventsFlux)
+                .assertNext(event -> assertEquals("resync", event.event()))
+                .verifyComplete();
+    }
+
     @Test
     void getAllMovieInfos() {
         webTestClient
@@ -121,6 +310,206 @@ class MoviesInfoControllerIntgTest {
                 .hasSize(3);
     }
 
+    @Test
+    void getAllMovieInfos_withDeadline() {
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL)
+                .header(Deadline.HEADER, "5000")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(3);
+    }
+
+    @Test
+    void getAllMovieInfos_deadlineAlreadyExpired() {
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL)
+                .header(Deadline.HEADER, "0")
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+    }
+
+    @Test
+    void getMovieInfoPage() {
+        //given
+        var movieInfoIds = new ArrayList<String>();
+
+        //when
+        var firstPage = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?limit=2")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(2)
+                .returnResult();
+        firstPage.getResponseBody().forEach(movieInfo -> movieInfoIds.add(movieInfo.getMovieInfoId()));
+        var cursor = firstPage.getResponseHeaders().getFirst(MoviesInfoController.NEXT_CURSOR_HEADER);
+
+        var lastPage = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?limit=2&after={after}", cursor)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(1)
+                .returnResult();
+        lastPage.getResponseBody().forEach(movieInfo -> movieInfoIds.add(movieInfo.getMovieInfoId()));
+
+        //then
+        assert cursor != null;
+        assert lastPage.getResponseHeaders().getFirst(MoviesInfoController.NEXT_CURSOR_HEADER) == null;
+        assertEquals(3, new HashSet<>(movieInfoIds).size());
+        assert movieInfoIds.contains("abc");
+    }
+
+    @Test
+    void getMovieInfoPage_withProjection() {
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?limit=3&fields=name,year")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(3)
+                .jsonPath("$[0].movie_info_id").exists()
+                .jsonPath("$[0].name").exists()
+                .jsonPath("$[0].year").exists()
+                .jsonPath("$[0].cast").doesNotExist()
+                .jsonPath("$[0].release_date").doesNotExist();
+    }
+
+    @Test
+    void getMovieInfoPage_withoutProjectionKeepsNulls() {
+        //given
+        repository.save(new MovieInfo("def", "Batman Returns", 1992, List.of("Michael Keaton"), null)).block();
+
+        //when
+        var body = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "def")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+        var projectedBody = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?limit=10&fields=name")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(String.class)
+                .returnResult()
+                .getResponseBody();
+
+        //then
+        assert body != null && body.contains("\"release_date\":null");
+        assert projectedBody != null && !projectedBody.contains("null");
+    }
+
+    @Test
+    void getMovieInfoPage_invalidRequest() {
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?limit=0")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?limit=2&fields=budget")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?limit=2&after=@@@")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?year=2005&limit=10")
+                .exchange()
+                .expectStatus()
+                .isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("limit cannot be combined with year or ids");
+
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?ids=abc&limit=10")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
+    @Test
+    void searchMovieInfos() {
+        //given
+        var movieInfo = webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .bodyValue(new MovieInfo(null, "Batman & Robin",
+                        1997, List.of("George Clooney", "Chris O'Donnell"), LocalDate.parse("1997-06-20")))
+                .exchange()
+                .expectStatus()
+                .isCreated()
+                .expectBody(MovieInfo.class)
+                .returnResult()
+                .getResponseBody();
+
+        //when
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/search?q={q}", "CLOO")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(1)
+                .consumeWith(result -> assertEquals("Batman & Robin", result.getResponseBody().get(0).getName()));
+        webTestClient
+                .delete()
+                .uri(MOVIES_INFO_URL + "/{id}", movieInfo.getMovieInfoId())
+                .exchange()
+                .expectStatus()
+                .isNoContent();
+
+        //then
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/search?q={q}", "batman & rob")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(0);
+    }
+
+    @Test
+    void searchMovieInfos_invalidLimit() {
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/search?q=bat&limit=0")
+                .exchange()
+                .expectStatus()
+                .isBadRequest();
+    }
+
     @Test
     void getMovieInfoByYear() {
         var uri = UriComponentsBuilder.fromUriString(MOVIES_INFO_URL)
@@ -157,6 +546,134 @@ class MoviesInfoControllerIntgTest {
 //                });
     }
 
+    @Test
+    void getMovieInfoById_notModified() {
+        //given
+        var eTag = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().valueMatches(HttpHeaders.ETAG, "\"0-[0-9a-f]{24}\"")
+                .returnResult(MovieInfo.class)
+                .getResponseHeaders()
+                .getETag();
+
+        //when
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus()
+                .isNotModified()
+                .expectBody()
+                .isEmpty();
+
+        //then
+        webTestClient
+                .patch()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .bodyValue(new MovieInfo(null, null, 2013, null, null))
+                .exchange()
+                .expectStatus()
+                .isOk();
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().valueMatches(HttpHeaders.ETAG, "\"1-[0-9a-f]{24}\"");
+    }
+
+    @Test
+    void getMovieInfoById_recreatedIsModified() {
+        //given
+        var eTag = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(MovieInfo.class)
+                .getResponseHeaders()
+                .getETag();
+
+        //when
+        webTestClient
+                .delete()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .exchange()
+                .expectStatus()
+                .isNoContent();
+        webTestClient
+                .post()
+                .uri(MOVIES_INFO_URL)
+                .bodyValue(new MovieInfo("abc", "Dark Knight Rises",
+                        2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20")))
+                .exchange()
+                .expectStatus()
+                .isCreated();
+
+        //then
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectHeader().valueMatches(HttpHeaders.ETAG, "\"0-[0-9a-f]{24}\"");
+        var patch = new MovieInfo();
+        patch.setName("Dark Knight Rises 2");
+        webTestClient
+                .patch()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .header(HttpHeaders.IF_MATCH, eTag)
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @Test
+    void getMovieInfoByYear_notModified() {
+        //given
+        var eTag = webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?year={year}", 2012)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(MovieInfo.class)
+                .getResponseHeaders()
+                .getETag();
+        assert eTag != null && eTag.startsWith("W/");
+
+        //when
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?year={year}", 2012)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus()
+                .isNotModified();
+
+        //then
+        webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "?year={year}", 2008)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus()
+                .isOk()
+                .expectBodyList(MovieInfo.class)
+                .hasSize(1);
+    }
+
     @Test
     void getMovieInfoById_notFound() {
         var id = "def";
@@ -205,6 +722,74 @@ class MoviesInfoControllerIntgTest {
                 .isNotFound();
     }
 
+    @Test
+    void patchMovieInfo() {
+        //given
+        final var movieInfoId = "abc";
+        var version = Objects.requireNonNull(repository.findById(movieInfoId).block()).getVersion();
+        var patch = new MovieInfo();
+        patch.setName("Dark Knight Rises 2");
+
+        //when
+        webTestClient
+                .patch()
+                .uri(MOVIES_INFO_URL + "/{id}", movieInfoId)
+                .header(HttpHeaders.IF_MATCH, "\"" + version + "\"")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBody(MovieInfo.class)
+                .consumeWith(movieInfoEntityExchangeResult -> {
+                    final var result = Objects.requireNonNull(movieInfoEntityExchangeResult.getResponseBody());
+                    assertEquals("Dark Knight Rises 2", result.getName());
+                    assertEquals(2012, result.getYear());
+                    assertEquals(List.of("Christian Bale", "Tom Hardy"), result.getCast());
+                    assertEquals(version + 1, result.getVersion());
+                });
+
+        //then
+        webTestClient
+                .patch()
+                .uri(MOVIES_INFO_URL + "/{id}", movieInfoId)
+                .header(HttpHeaders.IF_MATCH, "\"" + version + "\"")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .isEqualTo(HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @Test
+    void patchMovieInfo_invalid() {
+        var patch = new MovieInfo();
+        patch.setYear(-1);
+
+        webTestClient
+                .patch()
+                .uri(MOVIES_INFO_URL + "/{id}", "abc")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("movieInfo.year must be a positive value");
+    }
+
+    @Test
+    void patchMovieInfo_notFound() {
+        var patch = new MovieInfo();
+        patch.setName("Dark Knight Rises 2");
+
+        webTestClient
+                .patch()
+                .uri(MOVIES_INFO_URL + "/{id}", "def")
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .bodyValue(patch)
+                .exchange()
+                .expectStatus()
+                .isNotFound();
+    }
+
     @Test
     void deleteMovieInfo() {
         final var movieInfoId = "abc";
@@ -0,0 +1,109 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.repository.MovieInfoRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs against an embedded single node replica set. Writes go straight to the repository, as a
+ * write through another replica of the service would.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@AutoConfigureWebTestClient
+@TestPropertySource(properties = {
+        "spring.mongodb.embedded.version=4.0.21",
+        "spring.mongodb.embedded.storage.repl-set-name=rs0",
+        "movieinfos.stream.source=change-stream",
+})
+class MovieInfoChangeStreamIntgTest {
+
+    static String MOVIES_INFO_URL = "/v1/movieinfos";
+
+    @Autowired
+    MovieInfoRepository repository;
+
+    @Autowired
+    MovieInfoEventLog movieInfoEventLog;
+
+    @Autowired
+    WebTestClient webTestClient;
+
+    @AfterEach
+    void tearDown() {
+        repository.deleteAll().block();
+    }
+
+    @Test
+    void writesFromAnyReplicaReachTheStream() {
+        StepVerifier.create(movieInfoEventLog.latestAndLive().map(MovieInfoEvent::getMovieInfo))
+                .then(() -> repository.save(movieInfo("Batman Begins")).block())
+                .assertNext(movieInfo -> assertEquals("Batman Begins", movieInfo.getName()))
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void resumeAfterClusterTime() {
+        //given
+        var movieInfo = movieInfo("The Dark Knight");
+        var sequence = new AtomicLong();
+        StepVerifier.create(movieInfoEventLog.latestAndLive())
+                .then(() -> repository.save(movieInfo).block())
+                .consumeNextWith(event -> {
+                    assertEquals("The Dark Knight", event.getMovieInfo().getName());
+                    sequence.set(event.getSequence());
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+
+        //when
+        movieInfo.setName("The Dark Knight Returns");
+        repository.save(movieInfo).block();
+
+        //then
+        StepVerifier.create(sseEvents(String.valueOf(sequence.get())))
+                .assertNext(event -> {
+                    assertEquals("The Dark Knight Returns", Objects.requireNonNull(event.data()).getName());
+                    assert Long.parseLong(Objects.requireNonNull(event.id())) > sequence.get();
+                })
+                .thenCancel()
+                .verify(Duration.ofSeconds(10));
+    }
+
+    private Flux<ServerSentEvent<MovieInfo>> sseEvents(String after) {
+        return webTestClient
+                .get()
+                .uri(MOVIES_INFO_URL + "/stream?after={after}", after)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<MovieInfo>>() {})
+                .getResponseBody();
+    }
+
+    private static MovieInfo movieInfo(String name) {
+        return new MovieInfo(null, name, 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15"));
+    }
+}
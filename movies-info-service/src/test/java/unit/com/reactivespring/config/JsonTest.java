@@ -0,0 +1,27 @@
+package com.reactivespring.config;
+
+import com.reactivespring.domain.MovieInfo;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+class JsonTest {
+
+    @Test
+    void snakeCaseContractWithGeneratedAccessors() throws Exception {
+        //given
+        var movieInfo = new MovieInfo("abc", "Batman Begins",
+                2005, List.of("Christian Bale", "Michael Cane"), LocalDate.parse("2005-06-15"), 1L);
+
+        //when
+        var json = Json.writeValueAsString(movieInfo);
+        var decoded = Json.readValue(json, MovieInfo.class);
+
+        //then
+        assert json.equals(Json.builder().build().writeValueAsString(movieInfo));
+        assert json.contains("\"movie_info_id\":\"abc\"");
+        assert json.contains("\"release_date\":\"2005-06-15\"");
+        assert movieInfo.equals(decoded);
+    }
+}
@@ -0,0 +1,68 @@
+package com.reactivespring.search;
+
+import com.reactivespring.domain.MovieInfo;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MovieInfoSearchIndexTest {
+
+    private final MovieInfoSearchIndex searchIndex = new MovieInfoSearchIndex();
+
+    @Test
+    void search_matchesStartOfAnyWordInNameOrCast() {
+        //given
+        searchIndex.put(movieInfo("1", "Batman Begins", 0L, "Christian Bale", "Michael Cane"));
+        searchIndex.put(movieInfo("2", "The Dark Knight", 0L, "Christian Bale", "Heath Ledger"));
+        searchIndex.put(movieInfo("3", "Amélie", 0L, "Audrey Tautou"));
+
+        //then
+        assertEquals(List.of("Batman Begins"), names(searchIndex.search("bat", 10)));
+        assertEquals(List.of("The Dark Knight"), names(searchIndex.search("  DARK  kn", 10)));
+        assertEquals(List.of("The Dark Knight"), names(searchIndex.search("ledg", 10)));
+        assertEquals(List.of("Amélie"), names(searchIndex.search("ame", 10)));
+        assertEquals(2, searchIndex.search("christian", 10).size());
+        assertEquals(1, searchIndex.search("christian", 1).size());
+        assertEquals(0, searchIndex.search(" ", 10).size());
+    }
+
+    @Test
+    void put_replacesTermsOfPreviousVersion() {
+        //given
+        searchIndex.put(movieInfo("1", "Batman Begins", 0L, "Christian Bale"));
+
+        //when
+        searchIndex.put(movieInfo("1", "Batman Forever", 1L, "Val Kilmer"));
+        searchIndex.put(movieInfo("1", "Batman Begins", 0L, "Christian Bale"));
+
+        //then
+        assertEquals(List.of("Batman Forever"), names(searchIndex.search("batman", 10)));
+        assertEquals(0, searchIndex.search("begins", 10).size());
+        assertEquals(0, searchIndex.search("bale", 10).size());
+    }
+
+    @Test
+    void remove() {
+        //given
+        searchIndex.put(movieInfo("1", "Batman Begins", 0L, "Christian Bale"));
+
+        //when
+        searchIndex.remove("1");
+
+        //then
+        assertEquals(0, searchIndex.search("b", 10).size());
+        assertEquals(0, searchIndex.size());
+    }
+
+    private static List<String> names(List<MovieInfo> movieInfos) {
+        return movieInfos.stream().map(MovieInfo::getName).collect(Collectors.toList());
+    }
+
+    private static MovieInfo movieInfo(String id, String name, Long version, String... cast) {
+        return new MovieInfo(id, name, 2005, List.of(cast), LocalDate.parse("2005-06-15"), version);
+    }
+}
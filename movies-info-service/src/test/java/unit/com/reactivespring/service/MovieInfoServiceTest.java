@@ -0,0 +1,113 @@
+package com.reactivespring.service;
+
+import com.reactivespring.config.Json;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.repository.MovieInfoRepository;
+import com.reactivespring.search.MovieInfoSearchIndex;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import javax.validation.Validation;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MovieInfoServiceTest {
+
+    private final MovieInfoRepository movieInfoRepository = mock(MovieInfoRepository.class);
+    private final ReactiveMongoTemplate reactiveMongoTemplate = mock(ReactiveMongoTemplate.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger reads = new AtomicInteger();
+
+    private final MovieInfoService movieInfoService = new MovieInfoService(movieInfoRepository, reactiveMongoTemplate,
+            Json.mapper(), Validation.buildDefaultValidatorFactory().getValidator(), new MovieInfoSearchIndex(), meterRegistry,
+            500, true, 100, Duration.ofMinutes(10));
+
+    @Test
+    void getMovieInfoById_readThrough() {
+        //given
+        stubFindById(movieInfo("Dark Knight Rises"));
+
+        //when
+        StepVerifier.create(movieInfoService.getMovieInfoById("abc"))
+                .assertNext(movieInfo -> assertEquals("Dark Knight Rises", movieInfo.getName()))
+                .verifyComplete();
+        StepVerifier.create(movieInfoService.getMovieInfoById("abc"))
+                .assertNext(movieInfo -> assertEquals("Dark Knight Rises", movieInfo.getName()))
+                .verifyComplete();
+
+        //then
+        assertEquals(1, reads.get());
+        assertEquals(0.5, meterRegistry.get("movieinfos.cache.hit.ratio").gauge().value());
+    }
+
+    @Test
+    void getMovieInfoById_notFoundIsNotCached() {
+        //given
+        when(movieInfoRepository.findById("abc")).thenReturn(Mono.defer(() -> {
+            reads.incrementAndGet();
+            return Mono.empty();
+        }));
+
+        //when
+        StepVerifier.create(movieInfoService.getMovieInfoById("abc")).verifyComplete();
+        StepVerifier.create(movieInfoService.getMovieInfoById("abc")).verifyComplete();
+
+        //then
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    void updateMovieInfo_invalidates() {
+        //given
+        stubFindById(movieInfo("Dark Knight Rises"));
+        movieInfoService.getMovieInfoById("abc").block();
+        var updated = movieInfo("Dark Knight Rises 2");
+        when(reactiveMongoTemplate.findAndModify(any(), any(), any(), any(Class.class))).thenReturn(Mono.just(updated));
+
+        //when
+        movieInfoService.updateMovieInfo(updated, "abc").block();
+        stubFindById(updated);
+
+        //then
+        StepVerifier.create(movieInfoService.getMovieInfoById("abc"))
+                .assertNext(movieInfo -> assertEquals("Dark Knight Rises 2", movieInfo.getName()))
+                .verifyComplete();
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    void deleteMovieInfoById_invalidates() {
+        //given
+        stubFindById(movieInfo("Dark Knight Rises"));
+        movieInfoService.getMovieInfoById("abc").block();
+        when(movieInfoRepository.deleteById("abc")).thenReturn(Mono.empty());
+
+        //when
+        movieInfoService.deleteMovieInfoById("abc").block();
+        movieInfoService.getMovieInfoById("abc").block();
+
+        //then
+        assertEquals(2, reads.get());
+    }
+
+    private void stubFindById(MovieInfo movieInfo) {
+        when(movieInfoRepository.findById("abc")).thenReturn(Mono.defer(() -> {
+            reads.incrementAndGet();
+            return Mono.just(movieInfo);
+        }));
+    }
+
+    private static MovieInfo movieInfo(String name) {
+        return new MovieInfo("abc", name, 2012, List.of("Christian Bale", "Tom Hardy"), LocalDate.parse("2012-07-20"));
+    }
+}
@@ -0,0 +1,84 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.config.Json;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.exception.StreamResyncException;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import reactor.test.StepVerifier;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MovieInfoEventLogTest {
+
+    @Test
+    void eventsAfter_replaysThenFollowsLive() {
+        //given
+        var eventLog = new MovieInfoEventLog(Json.mapper(), 10, DataSize.ofMegabytes(1), "local");
+        eventLog.appendLocalWrite(movieInfo("Batman Begins"));
+        eventLog.appendLocalWrite(movieInfo("The Dark Knight"));
+
+        //when
+        StepVerifier.create(eventLog.eventsAfter(1))
+                .assertNext(event -> assertEquals("The Dark Knight", event.getMovieInfo().getName()))
+                .then(() -> eventLog.appendLocalWrite(movieInfo("Dark Knight Rises")))
+                .assertNext(event -> {
+                    assertEquals(3, event.getSequence());
+                    assertEquals("Dark Knight Rises", event.getMovieInfo().getName());
+                })
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void eventsAfter_evictedByCount() {
+        //given
+        var eventLog = new MovieInfoEventLog(Json.mapper(), 2, DataSize.ofMegabytes(1), "local");
+        List.of("Batman Begins", "The Dark Knight", "Dark Knight Rises").forEach(name -> eventLog.appendLocalWrite(movieInfo(name)));
+
+        //when
+        StepVerifier.create(eventLog.eventsAfter(0))
+                .expectErrorSatisfies(ex -> assertEquals(3, ((StreamResyncException) ex).getLatestSequence()))
+                .verify();
+
+        //then
+        StepVerifier.create(eventLog.eventsAfter(1))
+                .expectNextCount(2)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void eventsAfter_evictedByBytes() {
+        //given
+        var size = Json.writeValueAsString(movieInfo("Batman Begins")).length();
+        var eventLog = new MovieInfoEventLog(Json.mapper(), 100, DataSize.ofBytes(size * 2L), "local");
+        List.of("Batman Begins", "Batman Begins", "Batman Begins").forEach(name -> eventLog.appendLocalWrite(movieInfo(name)));
+
+        //then
+        StepVerifier.create(eventLog.eventsAfter(0))
+                .expectError(StreamResyncException.class)
+                .verify();
+        StepVerifier.create(eventLog.eventsAfter(1))
+                .expectNextCount(2)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void eventsAfter_unknownPosition() {
+        var eventLog = new MovieInfoEventLog(Json.mapper(), 10, DataSize.ofMegabytes(1), "local");
+        eventLog.appendLocalWrite(movieInfo("Batman Begins"));
+
+        StepVerifier.create(eventLog.eventsAfter(42))
+                .expectError(StreamResyncException.class)
+                .verify();
+    }
+
+    private static MovieInfo movieInfo(String name) {
+        return new MovieInfo(null, name, 2005, List.of("Christian Bale"), LocalDate.parse("2005-06-15"));
+    }
+}
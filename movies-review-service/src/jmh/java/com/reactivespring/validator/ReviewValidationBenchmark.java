@@ -0,0 +1,64 @@
+package com.reactivespring.validator;
+
+import com.reactivespring.domain.Review;
+import com.reactivespring.exception.ReviewDataException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Validates one review the way POST /v1/reviews used to (Bean Validation, then a sorted and
+ * joined message thrown with a stack trace) against {@link ReviewConstraints}, for a valid
+ * and an invalid review. Run with {@code ./gradlew jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReviewValidationBenchmark {
+
+    @Param({"valid", "invalid"})
+    public String review;
+
+    private Validator validator;
+    private ReviewConstraints reviewConstraints;
+    private Review subject;
+
+    @Setup
+    public void setUp() {
+        validator = Validation.buildDefaultValidatorFactory().getValidator();
+        reviewConstraints = new ReviewConstraints();
+        subject = review.equals("valid")
+                ? new Review(null, 1L, "Awesome Movie", 9.0)
+                : new Review(null, null, "Awesome Movie", -9.0);
+    }
+
+    @Benchmark
+    public void beanValidation(Blackhole blackhole) {
+        var constraintViolations = validator.validate(subject);
+        if (!constraintViolations.isEmpty()) {
+            var errorMessage = constraintViolations
+                    .stream()
+                    .map(ConstraintViolation::getMessage)
+                    .sorted()
+                    .collect(Collectors.joining(", "));
+            blackhole.consume(new ReviewDataException(errorMessage));
+        }
+    }
+
+    @Benchmark
+    public void precompiled(Blackhole blackhole) {
+        blackhole.consume(reviewConstraints.rejectionOf(subject));
+    }
+}
@@ -0,0 +1,40 @@
+package com.reactivespring.config;
+
+import com.reactivespring.domain.Review;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+
+/**
+ * Creates the indexes declared on the documents before the application starts serving,
+ * since Spring Data no longer creates them automatically.
+ */
+@Component
+@Slf4j
+public class MongoIndexInitializer implements SmartInitializingSingleton {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final MongoMappingContext mongoMappingContext;
+
+    public MongoIndexInitializer(ReactiveMongoTemplate reactiveMongoTemplate, MongoMappingContext mongoMappingContext) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.mongoMappingContext = mongoMappingContext;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        var indexResolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
+        var indexOperations = reactiveMongoTemplate.indexOps(Review.class);
+        // ensureIndex is a no-op for an index that already exists with the same definition
+        Flux.fromIterable(indexResolver.resolveIndexFor(Review.class))
+                .concatMap(indexOperations::ensureIndex)
+                .doOnNext(indexName -> log.info("Ensured index {} on {}", indexName, Review.class.getSimpleName()))
+                .blockLast(Duration.ofSeconds(30));
+    }
+}
@@ -0,0 +1,46 @@
+package com.reactivespring.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// One response line per request line. A parsed review has no status until its batch is written;
+// UNKNOWN means the write failed without saying which reviews it stored, so retrying the line
+// may duplicate it.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BulkLine {
+
+    public enum Status {WRITTEN, REJECTED, UNKNOWN}
+
+    private long line;
+    private Status status;
+    private Review review;
+    private String reason;
+
+    public static BulkLine parsed(long line, Review review) {
+        return new BulkLine(line, null, review, null);
+    }
+
+    public static BulkLine rejected(long line, String reason) {
+        return new BulkLine(line, Status.REJECTED, null, reason);
+    }
+
+    @JsonIgnore
+    public boolean isPending() {
+        return status == null;
+    }
+
+    public void written() {
+        this.status = Status.WRITTEN;
+    }
+
+    public void notWritten(Status status, String reason) {
+        this.status = status;
+        this.reason = reason;
+    }
+}
@@ -0,0 +1,35 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Rating aggregates of one movie, kept current on every review write. Reviews without a rating are not counted.
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document
+public class ReviewStats {
+
+    @Id
+    private Long movieInfoId;
+    private long count;
+    private double sum;
+    private Double min;
+    private Double max;
+    // floor(rating) -> number of reviews
+    private Map<String, Long> histogram = new LinkedHashMap<>();
+
+    public static ReviewStats empty(Long movieInfoId) {
+        return new ReviewStats(movieInfoId, 0, 0, null, null, new LinkedHashMap<>());
+    }
+
+    public Double getMean() {
+        return count > 0 ? sum / count : null;
+    }
+}
@@ -1,9 +1,31 @@
 package com.reactivespring.exception;
 
+import java.nio.charset.StandardCharsets;
+
 public class ReviewDataException extends RuntimeException {
     private String message;
+    // the response body, rendered once
+    private final byte[] body;
+
     public ReviewDataException(String s) {
         super(s);
         this.message=s;
+        this.body = s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ReviewDataException(String s, boolean writableStackTrace) {
+        super(s, null, false, writableStackTrace);
+        this.message = s;
+        this.body = s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // For rejections built once and thrown many times: no stack trace is captured and
+    // suppression is disabled, so one instance can safely be shared between requests.
+    public static ReviewDataException stackless(String s) {
+        return new ReviewDataException(s, false);
+    }
+
+    public byte[] getBody() {
+        return body;
     }
 }
@@ -15,20 +15,22 @@ import reactor.core.publisher.Mono;
 public class GlobalErrorHandler implements ErrorWebExceptionHandler {
     @Override
     public Mono<Void> handle(ServerWebExchange exchange, Throwable ex) {
-        log.error("Exception Message is : {} ", ex.getMessage(), ex);
-
         DataBufferFactory bufferFactory = exchange.getResponse().bufferFactory();
+        // Invalid input is the client's error: no stack trace is logged, and the body rendered
+        // with the exception is wrapped as is instead of being encoded again.
+        if(ex instanceof ReviewDataException){
+            log.debug("Rejected review data : {} ", ex.getMessage());
+            exchange.getResponse().setStatusCode(HttpStatus.BAD_REQUEST);
+            return exchange.getResponse().writeWith(Mono.just(bufferFactory.wrap(((ReviewDataException) ex).getBody())));
+        }
+
+        log.error("Exception Message is : {} ", ex.getMessage(), ex);
         var errorMessage = bufferFactory.wrap(ex.getMessage().getBytes());
         if(ex instanceof ReviewNotFoundException){
             exchange.getResponse().setStatusCode(HttpStatus.NOT_FOUND);
             return exchange.getResponse().writeWith(Mono.just(errorMessage));
         }
 
-        if(ex instanceof ReviewDataException){
-            exchange.getResponse().setStatusCode(HttpStatus.BAD_REQUEST);
-            return exchange.getResponse().writeWith(Mono.just(errorMessage));
-        }
-
         exchange.getResponse().setStatusCode(HttpStatus.INTERNAL_SERVER_ERROR);
         return exchange.getResponse().writeWith(Mono.just(errorMessage));
     }
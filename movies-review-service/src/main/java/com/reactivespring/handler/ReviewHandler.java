@@ -1,30 +1,51 @@
 package com.reactivespring.handler;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.reactivespring.domain.BulkLine;
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewStats;
 import com.reactivespring.exception.ReviewDataException;
 import com.reactivespring.exception.ReviewNotFoundException;
 import com.reactivespring.repository.ReviewReactiveRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
+import com.reactivespring.validator.ReviewConstraints;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
-import org.springframework.validation.BeanPropertyBindingResult;
-import org.springframework.validation.Errors;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Sinks;
+import reactor.util.function.Tuple2;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
 import java.util.stream.Collectors;
 
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
 @Component
 @Slf4j
 public class ReviewHandler {
     private ReviewReactiveRepository reviewReactiveRepository;
+    private ReviewStatsRepository reviewStatsRepository;
+    private ObjectMapper objectMapper;
+    private ReviewConstraints reviewConstraints;
     //private ReviewValidator reviewValidator;
 
     Sinks.Many<Review> reviewsSink = Sinks.many().replay().latest();
@@ -32,8 +53,12 @@ public class ReviewHandler {
     @Autowired
     private Validator validator;
 
-    public ReviewHandler(ReviewReactiveRepository reviewReactiveRepository) {
+    public ReviewHandler(ReviewReactiveRepository reviewReactiveRepository, ReviewStatsRepository reviewStatsRepository,
+                         ObjectMapper objectMapper, ReviewConstraints reviewConstraints) {
         this.reviewReactiveRepository = reviewReactiveRepository;
+        this.reviewStatsRepository = reviewStatsRepository;
+        this.objectMapper = objectMapper;
+        this.reviewConstraints = reviewConstraints;
     }
 
 //    public ReviewHandler(ReviewReactiveRepository reviewReactiveRepository, ReviewValidator reviewValidator) {
@@ -44,19 +69,150 @@ public class ReviewHandler {
 
     static Mono<ServerResponse> notFound = ServerResponse.notFound().build();
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    private static final String CURSOR_SEPARATOR = "|";
+
+    @Value("${reviews.maxPageSize:1000}")
+    private int maxPageSize;
+
+    @Value("${reviews.bulk.batchSize:500}")
+    private int bulkBatchSize;
+
 
     public Mono<ServerResponse> getReviews(ServerRequest serverRequest) {
+        if (serverRequest.queryParam("limit").isPresent()) {
+            return getReviewPage(serverRequest);
+        }
         var movieInfoId = serverRequest.queryParam("movieInfoId");
+        var movieInfoIds = serverRequest.queryParam("movieInfoIds");
         Flux<Review> reviews;
-        if (movieInfoId.isPresent()) {
-            reviews = reviewReactiveRepository.findReviewsByMovieInfoId(Long.valueOf(movieInfoId.get()));
+        if (movieInfoIds.isPresent()) {
+            var ids = new ArrayList<Long>();
+            var invalidIds = new ArrayList<String>();
+            Arrays.stream(movieInfoIds.get().split(","))
+                    .map(String::trim)
+                    .forEach(id -> {
+                        try {
+                            ids.add(Long.valueOf(id));
+                        } catch (NumberFormatException ex) {
+                            invalidIds.add(id);
+                        }
+                    });
+            // a 400 names the bad ids; as a 500 the whole batch would be retried by movies-service
+            if (!invalidIds.isEmpty()) {
+                return Mono.error(new ReviewDataException("movieInfoIds must be numbers : " + String.join(",", invalidIds)));
+            }
+            reviews = reviewReactiveRepository.findWithDeadline(query(where("movieInfoId").in(ids)));
+        } else if (movieInfoId.isPresent()) {
+            try {
+                reviews = reviewReactiveRepository.findWithDeadline(query(where("movieInfoId").is(Long.valueOf(movieInfoId.get()))));
+            } catch (NumberFormatException ex) {
+                return Mono.error(new ReviewDataException("movieInfoId must be a number"));
+            }
         } else {
-            reviews = reviewReactiveRepository.findAll();
+            reviews = reviewReactiveRepository.findWithDeadline(new Query());
+        }
+        return buildReviewsResponse(serverRequest, reviews);
+    }
+
+    // Keyset pagination on the (movieInfoId, rating, _id) and (movieInfoId, _id) indexes: each page
+    // resumes after the last review of the previous one, so a page costs an index range scan
+    // however deep it is. sort=rating is highest first, sort=recent (the default) newest first.
+    private Mono<ServerResponse> getReviewPage(ServerRequest serverRequest) {
+        int limit;
+        Long movieInfoId;
+        try {
+            limit = Integer.parseInt(serverRequest.queryParam("limit").orElseThrow());
+            movieInfoId = serverRequest.queryParam("movieInfoId").map(Long::valueOf).orElse(null);
+        } catch (NumberFormatException ex) {
+            return Mono.error(new ReviewDataException("limit and movieInfoId must be numbers"));
+        }
+        if (limit < 1 || limit > maxPageSize) {
+            return Mono.error(new ReviewDataException("limit must be between 1 and " + maxPageSize));
+        }
+        var byRating = serverRequest.queryParam("sort").map("rating"::equals).orElse(false);
+        if (!byRating && !serverRequest.queryParam("sort").map("recent"::equals).orElse(true)) {
+            return Mono.error(new ReviewDataException("sort must be one of [rating, recent]"));
+        }
+        // rating is not a leading index key, so it is only sortable within one movie
+        if (byRating && movieInfoId == null) {
+            return Mono.error(new ReviewDataException("sort=rating requires a movieInfoId"));
+        }
+
+        // one extra review tells whether there is a next page without a second query
+        var query = new Query().limit(limit + 1);
+        if (movieInfoId != null) {
+            query.addCriteria(where("movieInfoId").is(movieInfoId));
+        }
+        query.with(byRating
+                ? Sort.by(Sort.Direction.DESC, "rating", "reviewId")
+                : Sort.by(Sort.Direction.DESC, "reviewId"));
+        var after = serverRequest.queryParam("after");
+        if (after.isPresent()) {
+            try {
+                query.addCriteria(after(decodeCursor(after.get()), byRating));
+            } catch (IllegalArgumentException ex) {
+                return Mono.error(new ReviewDataException("after is not a valid cursor"));
+            }
         }
-        return buildReviewsResponse(reviews);
+
+        return reviewReactiveRepository.findWithDeadline(query)
+                .collectList()
+                .flatMap(reviews -> {
+                    if (reviews.size() <= limit) {
+                        return ServerResponse.ok().bodyValue(reviews);
+                    }
+                    var page = reviews.subList(0, limit);
+                    return ServerResponse.ok()
+                            .header(NEXT_CURSOR_HEADER, encodeCursor(page.get(limit - 1), byRating))
+                            .bodyValue(page);
+                });
+    }
+
+    // Descending order puts reviews without a rating last, after every rated one.
+    private static Criteria after(String cursor, boolean byRating) {
+        if (!byRating) {
+            return where("reviewId").lt(reviewId(cursor));
+        }
+        var separator = cursor.lastIndexOf(CURSOR_SEPARATOR);
+        if (separator < 0) {
+            throw new IllegalArgumentException(cursor);
+        }
+        var rating = cursor.substring(0, separator);
+        var reviewId = reviewId(cursor.substring(separator + 1));
+        if (rating.isEmpty()) {
+            return new Criteria().andOperator(where("rating").is(null), where("reviewId").lt(reviewId));
+        }
+        var ratingValue = Double.valueOf(rating);
+        return new Criteria().orOperator(
+                where("rating").lt(ratingValue),
+                new Criteria().andOperator(where("rating").is(ratingValue), where("reviewId").lt(reviewId)),
+                where("rating").is(null));
+    }
+
+    private static Object reviewId(String reviewId) {
+        return ObjectId.isValid(reviewId) ? new ObjectId(reviewId) : reviewId;
+    }
+
+    private static String encodeCursor(Review review, boolean byRating) {
+        var cursor = byRating
+                ? (review.getRating() != null ? review.getRating().toString() : "") + CURSOR_SEPARATOR + review.getReviewId()
+                : review.getReviewId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
     }
 
-    private Mono<ServerResponse> buildReviewsResponse(Flux<Review> reviews) {
+    // NumberFormatException is an IllegalArgumentException too
+    private static String decodeCursor(String cursor) {
+        return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+    }
+
+    private Mono<ServerResponse> buildReviewsResponse(ServerRequest serverRequest, Flux<Review> reviews) {
+        // NDJSON lets callers consume reviews one line at a time instead of one large array
+        if (serverRequest.headers().accept().contains(MediaType.APPLICATION_NDJSON)) {
+            return ServerResponse.ok()
+                    .contentType(MediaType.APPLICATION_NDJSON)
+                    .body(reviews, Review.class);
+        }
         return ServerResponse.ok()
                 .body(reviews, Review.class);
     }
@@ -64,8 +220,11 @@ public class ReviewHandler {
     public Mono<ServerResponse> addReview(ServerRequest serverRequest) {
 
         return serverRequest.bodyToMono(Review.class)
-                .doOnNext(this::validate)
-                .flatMap(review -> reviewReactiveRepository.save(review))
+                .flatMap(review -> {
+                    var rejection = reviewConstraints.rejectionOf(review);
+                    return rejection != null ? Mono.<Review>error(rejection) : reviewReactiveRepository.save(review);
+                })
+                .flatMap(savedReview -> reviewStatsRepository.recordAdded(savedReview).thenReturn(savedReview))
                 .doOnNext(review -> {
                     reviewsSink.tryEmitNext(review);
                 })
@@ -74,60 +233,168 @@ public class ReviewHandler {
                                 .bodyValue(savedReview));
     }
 
-    private void validate(Review review) {
-        Errors errors = new BeanPropertyBindingResult(review, "review");
-       /* reviewValidator.validate(review, errors);
-        if (errors.hasErrors()) {
-            var errorMessage = errors.getAllErrors()
-                    .stream()
-                    .map(error -> error.getCode() + " : " + error.getDefaultMessage())
-                    .sorted()
-                    .collect(Collectors.joining(", "));
-            log.info("errorMessage : {} ", errorMessage);
-            throw new ReviewDataException(errorMessage);
-        }*/
+    // Loads existing reviews, e.g. when migrating them from another system: they are not replayed
+    // on /stream, and each batch's stats are folded into one upsert per movie. Lines are answered
+    // in request order once their batch is written; with a single batch in flight a slow Mongo
+    // slows down reading the upload instead of queueing it in memory.
+    public Mono<ServerResponse> addReviews(ServerRequest serverRequest) {
+        var results = serverRequest.bodyToFlux(String.class)
+                .index()
+                .filter(line -> !line.getT2().isBlank())
+                .buffer(bulkBatchSize)
+                .concatMap(this::insertBatch, 1);
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(results, BulkLine.class);
+    }
+
+    private Flux<BulkLine> insertBatch(List<Tuple2<Long, String>> lines) {
+        var batch = lines.stream()
+                .map(line -> parse(line.getT1() + 1, line.getT2()))
+                .collect(Collectors.toList());
+        var parsed = batch.stream()
+                .filter(BulkLine::isPending)
+                .collect(Collectors.toList());
+        if (parsed.isEmpty()) {
+            return Flux.fromIterable(batch);
+        }
+        var reviews = parsed.stream()
+                .map(BulkLine::getReview)
+                .collect(Collectors.toList());
+        return reviewReactiveRepository.insertUnordered(reviews)
+                .flatMap(result -> {
+                    var written = new ArrayList<Review>();
+                    for (int i = 0; i < parsed.size(); i++) {
+                        var bulkLine = parsed.get(i);
+                        if (result.getRejected().containsKey(i)) {
+                            bulkLine.notWritten(BulkLine.Status.REJECTED, result.getRejected().get(i));
+                        } else if (result.getUnknown().containsKey(i)) {
+                            bulkLine.notWritten(BulkLine.Status.UNKNOWN, result.getUnknown().get(i));
+                        } else {
+                            bulkLine.written();
+                            written.add(bulkLine.getReview());
+                        }
+                    }
+                    return reviewStatsRepository.recordAdded(written);
+                })
+                .thenMany(Flux.fromIterable(batch));
+    }
 
+    private BulkLine parse(long lineNumber, String line) {
+        Review review;
+        try {
+            review = objectMapper.readValue(line, Review.class);
+        } catch (JsonProcessingException ex) {
+            return BulkLine.rejected(lineNumber, "invalid json : " + ex.getOriginalMessage());
+        }
         var constraintViolations = validator.validate(review);
-        log.info("constraintViolations : {} ", constraintViolations);
-        if (constraintViolations.size() > 0) {
-            var errorMessage = constraintViolations.stream()
+        if (!constraintViolations.isEmpty()) {
+            return BulkLine.rejected(lineNumber, constraintViolations.stream()
                     .map(ConstraintViolation::getMessage)
                     .sorted()
-                    .collect(Collectors.joining(", "));
-            log.info("errorMessage : {} ", errorMessage);
-            throw new ReviewDataException(errorMessage);
+                    .collect(Collectors.joining(", ")));
         }
+        return BulkLine.parsed(lineNumber, review);
     }
 
+    // One findAndModify: the body's comment and rating are applied, and the version bumped,
+    // only if the review still has the version given in If-Match. The previous state it returns
+    // is what the stats need, so no read precedes the write.
     public Mono<ServerResponse> updateReview(ServerRequest serverRequest) {
 
         var reviewId = serverRequest.pathVariable("id");
+        var expectedVersions = ifMatchVersions(serverRequest);
 
-        var existingReview = reviewReactiveRepository.findById(reviewId);
-//        .switchIfEmpty(Mono.error(new ReviewNotFoundException("Review not Found for the given Review Id")));
-
-        return existingReview
-                .flatMap(review -> serverRequest.bodyToMono(Review.class)
-                        .map(reqReview -> {
-                            review.setComment(reqReview.getComment());
-                            review.setRating(reqReview.getRating());
-                            return review;
-                        })
-                        .flatMap(reviewReactiveRepository::save)
-                        .flatMap(savedReview ->
-                                ServerResponse.status(HttpStatus.OK)
-                                        .bodyValue(savedReview)))
-                .switchIfEmpty(notFound);
-
-
+        return serverRequest.bodyToMono(Review.class)
+                .flatMap(reqReview -> reviewReactiveRepository.findAndUpdate(reviewId, expectedVersions,
+                                reqReview.getComment(), reqReview.getRating())
+                        .flatMap(previousReview -> {
+                            var previousVersion = previousReview.getVersion() != null ? previousReview.getVersion() : 0L;
+                            var savedReview = new Review(previousReview.getReviewId(), previousReview.getMovieInfoId(),
+                                    reqReview.getComment(), reqReview.getRating(), previousVersion + 1);
+                            return reviewStatsRepository.recordUpdated(previousReview, savedReview)
+                                    .then(ServerResponse.status(HttpStatus.OK)
+                                            .eTag(String.valueOf(savedReview.getVersion()))
+                                            .bodyValue(savedReview));
+                        }))
+                .switchIfEmpty(Mono.defer(() -> preconditionFailedOr(reviewId, expectedVersions, notFound)));
     }
 
     public Mono<ServerResponse> deleteReview(ServerRequest serverRequest) {
         var reviewId = serverRequest.pathVariable("id");
-        return reviewReactiveRepository.findById(reviewId)
-                .flatMap(review -> reviewReactiveRepository.deleteById(reviewId))
+        var expectedVersions = ifMatchVersions(serverRequest);
+        return reviewReactiveRepository.findAndDelete(reviewId, expectedVersions)
+                .flatMap(review -> reviewStatsRepository.recordRemoved(review)
+                        .then(ServerResponse.noContent().build()))
+                .switchIfEmpty(Mono.defer(() -> preconditionFailedOr(reviewId, expectedVersions,
+                        ServerResponse.noContent().build())));
+
+    }
+
+    // For a movie removed from the catalogue: its reviews go in one deleteMany and its stats
+    // document with them.
+    public Mono<ServerResponse> deleteReviews(ServerRequest serverRequest) {
+        var movieInfoIdParam = serverRequest.queryParam("movieInfoId");
+        if (movieInfoIdParam.isEmpty()) {
+            return Mono.error(new ReviewDataException("movieInfoId : must be present"));
+        }
+        Long movieInfoId;
+        try {
+            movieInfoId = Long.valueOf(movieInfoIdParam.get());
+        } catch (NumberFormatException ex) {
+            return Mono.error(new ReviewDataException("movieInfoId : must be a number"));
+        }
+        return reviewReactiveRepository.deleteByMovieInfoId(movieInfoId)
+                .doOnNext(deletedCount -> log.info("Deleted {} reviews of movie {}", deletedCount, movieInfoId))
+                .then(reviewStatsRepository.removeByMovieInfoId(movieInfoId))
                 .then(ServerResponse.noContent().build());
+    }
+
+    // null when the write is unconditional (no If-Match, or *). If-Match uses the strong
+    // comparison, so weak or unparsable tags match no version.
+    private static List<Long> ifMatchVersions(ServerRequest serverRequest) {
+        List<String> tags;
+        try {
+            tags = serverRequest.headers().asHttpHeaders().getIfMatch();
+        } catch (IllegalArgumentException ex) {
+            return List.of();
+        }
+        if (tags.isEmpty() || tags.contains("*")) {
+            return null;
+        }
+        return tags.stream()
+                .filter(tag -> tag.length() > 2 && tag.startsWith("\"") && tag.endsWith("\""))
+                .map(tag -> tag.substring(1, tag.length() - 1))
+                .filter(version -> !version.isEmpty() && version.length() < 19 && version.chars().allMatch(Character::isDigit))
+                .map(Long::valueOf)
+                .collect(Collectors.toList());
+    }
 
+    // Nothing matched: a review that exists failed the If-Match check. Only looked up on this path.
+    private Mono<ServerResponse> preconditionFailedOr(String reviewId, List<Long> expectedVersions,
+                                                      Mono<ServerResponse> otherwise) {
+        if (expectedVersions == null) {
+            return otherwise;
+        }
+        return reviewReactiveRepository.existsById(reviewId)
+                .flatMap(exists -> exists ? ServerResponse.status(HttpStatus.PRECONDITION_FAILED).build() : otherwise);
+    }
+
+    // a single document read, maintained on every write instead of aggregated per request
+    public Mono<ServerResponse> getReviewStats(ServerRequest serverRequest) {
+        var movieInfoIdParam = serverRequest.queryParam("movieInfoId");
+        if (movieInfoIdParam.isEmpty()) {
+            return Mono.error(new ReviewDataException("movieInfoId : must be present"));
+        }
+        Long movieInfoId;
+        try {
+            movieInfoId = Long.valueOf(movieInfoIdParam.get());
+        } catch (NumberFormatException ex) {
+            return Mono.error(new ReviewDataException("movieInfoId : must be a number"));
+        }
+        return reviewStatsRepository.findByMovieInfoId(movieInfoId)
+                .defaultIfEmpty(ReviewStats.empty(movieInfoId))
+                .flatMap(stats -> ServerResponse.ok().bodyValue(stats));
     }
 
     public Mono<ServerResponse> getReviewsStream(ServerRequest serverRequest) {
@@ -3,7 +3,12 @@ package com.reactivespring.repository;
 import com.reactivespring.domain.Review;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-public interface ReviewReactiveRepository extends ReactiveMongoRepository<Review, String> {
+import java.util.List;
+
+public interface ReviewReactiveRepository extends ReactiveMongoRepository<Review, String>, ReviewReactiveRepositoryCustom {
     Flux<Review> findReviewsByMovieInfoId(Long movieInfoId);
+    Flux<Review> findReviewsByMovieInfoIdIn(List<Long> movieInfoIds);
+    Mono<Long> deleteByMovieInfoId(Long movieInfoId);
 }
@@ -0,0 +1,24 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface ReviewReactiveRepositoryCustom {
+
+    Flux<Review> findWithDeadline(Query query);
+
+    // one unordered insertMany for a batch of bulk loaded reviews
+    Mono<UnorderedInsertResult> insertUnordered(List<Review> reviews);
+
+    // Sets comment and rating in one findAndModify and returns the review as it was before the
+    // update, empty when there is no such review or its version is not one of expectedVersions.
+    // A null expectedVersions updates whatever the version.
+    Mono<Review> findAndUpdate(String reviewId, List<Long> expectedVersions, String comment, Double rating);
+
+    // Same conditions as findAndUpdate; returns the deleted review.
+    Mono<Review> findAndDelete(String reviewId, List<Long> expectedVersions);
+}
@@ -0,0 +1,123 @@
+package com.reactivespring.repository;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import com.reactivespring.deadline.Deadline;
+import com.reactivespring.domain.Review;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+@Slf4j
+public class ReviewReactiveRepositoryCustomImpl implements ReviewReactiveRepositoryCustom {
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public ReviewReactiveRepositoryCustomImpl(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Override
+    public Flux<Review> findWithDeadline(Query query) {
+        return Flux.deferContextual(context -> reactiveMongoTemplate.find(Deadline.applyTo(query, context), Review.class));
+    }
+
+    // A review the server refuses (a duplicate id, say) only fails its own row. When the insert
+    // fails as a whole instead, e.g. the connection drops halfway, part of the batch may already be
+    // stored: the ids the driver assigned before sending are looked up, and only the reviews that
+    // cannot be found are reported as unknown.
+    @Override
+    public Mono<UnorderedInsertResult> insertUnordered(List<Review> reviews) {
+        var documents = reviews.stream()
+                .map(review -> {
+                    if (review.getVersion() == null) {
+                        review.setVersion(0L);
+                    }
+                    var document = new Document();
+                    reactiveMongoTemplate.getConverter().write(review, document);
+                    return document;
+                })
+                .collect(Collectors.toList());
+
+        return reviewCollection()
+                .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+                .map(result -> UnorderedInsertResult.allWritten())
+                .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(new UnorderedInsertResult(
+                        ex.getWriteErrors().stream()
+                                .collect(Collectors.toMap(BulkWriteError::getIndex, BulkWriteError::getMessage)),
+                        Map.of())))
+                .onErrorResume(ex -> !(ex instanceof MongoBulkWriteException), ex -> afterFailedInsert(documents, ex))
+                .doOnNext(result -> {
+                    for (int i = 0; i < reviews.size(); i++) {
+                        if (!result.getRejected().containsKey(i) && !result.getUnknown().containsKey(i)) {
+                            reviews.get(i).setReviewId(documents.get(i).get("_id").toString());
+                        }
+                    }
+                });
+    }
+
+    private Mono<UnorderedInsertResult> afterFailedInsert(List<Document> documents, Throwable ex) {
+        var reason = "outcome unknown : " + (ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        log.error("Bulk insert of {} reviews failed, looking up which were written : {}", documents.size(), ex.getMessage());
+        var ids = documents.stream()
+                .map(document -> document.get("_id"))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        return reviewCollection()
+                .flatMapMany(collection -> Flux.from(collection.find(new Document("_id", new Document("$in", ids)))
+                        .projection(new Document("_id", 1))))
+                .map(document -> document.get("_id"))
+                .collect(Collectors.toSet())
+                // the lookup failing as well leaves every review of the batch unknown
+                .onErrorReturn(Set.of())
+                .map(written -> new UnorderedInsertResult(Map.of(), IntStream.range(0, documents.size())
+                        .filter(i -> documents.get(i).get("_id") == null || !written.contains(documents.get(i).get("_id")))
+                        .boxed()
+                        .collect(Collectors.toMap(Function.identity(), i -> reason))));
+    }
+
+    private Mono<MongoCollection<Document>> reviewCollection() {
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(Review.class));
+    }
+
+    @Override
+    public Mono<Review> findAndUpdate(String reviewId, List<Long> expectedVersions, String comment, Double rating) {
+        var update = new Update()
+                .set("comment", comment)
+                .set("rating", rating)
+                .inc("version", 1);
+        return reactiveMongoTemplate.findAndModify(byIdAndVersion(reviewId, expectedVersions), update,
+                FindAndModifyOptions.options().returnNew(false), Review.class);
+    }
+
+    @Override
+    public Mono<Review> findAndDelete(String reviewId, List<Long> expectedVersions) {
+        return reactiveMongoTemplate.findAndRemove(byIdAndVersion(reviewId, expectedVersions), Review.class);
+    }
+
+    private static Query byIdAndVersion(String reviewId, List<Long> expectedVersions) {
+        var criteria = where("reviewId").is(reviewId);
+        if (expectedVersions != null) {
+            criteria.and("version").in(expectedVersions);
+        }
+        return query(criteria);
+    }
+}
@@ -0,0 +1,37 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Backfills the stats collection from the existing reviews the first time the service starts
+ * with incremental stats, before it starts serving.
+ */
+@Component
+@Slf4j
+public class ReviewStatsInitializer implements SmartInitializingSingleton {
+
+    private final ReviewStatsRepository reviewStatsRepository;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public ReviewStatsInitializer(ReviewStatsRepository reviewStatsRepository, ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reviewStatsRepository = reviewStatsRepository;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        reviewStatsRepository.isEmpty()
+                .filterWhen(empty -> empty ? reactiveMongoTemplate.exists(new Query(), Review.class) : Mono.just(false))
+                .flatMap(backfill -> reviewStatsRepository.rebuild()
+                        .doOnSuccess(done -> log.info("Review stats rebuilt from existing reviews")))
+                .block(Duration.ofMinutes(5));
+    }
+}
@@ -0,0 +1,181 @@
+package com.reactivespring.repository;
+
+import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewStats;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.newAggregation;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * One {@link ReviewStats} document per movie, maintained with atomic {@code $inc}, {@code $min}
+ * and {@code $max} updates, so reading the stats of a movie is a single lookup by id whatever
+ * its number of reviews.
+ */
+@Repository
+@Slf4j
+public class ReviewStatsRepository {
+
+    private static final int MAX_RECOMPUTE_ATTEMPTS = 10;
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    public ReviewStatsRepository(ReactiveMongoTemplate reactiveMongoTemplate) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+    }
+
+    public Mono<ReviewStats> findByMovieInfoId(Long movieInfoId) {
+        return reactiveMongoTemplate.findById(movieInfoId, ReviewStats.class);
+    }
+
+    public Mono<Void> recordAdded(Review review) {
+        if (review.getMovieInfoId() == null || review.getRating() == null) {
+            return Mono.empty();
+        }
+        var rating = review.getRating();
+        var update = new Update()
+                .inc("count", 1)
+                .inc("sum", rating)
+                .inc(bucket(rating), 1)
+                .min("min", rating)
+                .max("max", rating);
+        return reactiveMongoTemplate.upsert(byMovieInfoId(review.getMovieInfoId()), update, ReviewStats.class)
+                .then();
+    }
+
+    // One upsert per movie for a whole batch, instead of one per review.
+    public Mono<Void> recordAdded(List<Review> reviews) {
+        return Flux.fromIterable(reviews.stream()
+                        .filter(review -> review.getMovieInfoId() != null && review.getRating() != null)
+                        .collect(Collectors.groupingBy(Review::getMovieInfoId, LinkedHashMap::new, Collectors.toList()))
+                        .entrySet())
+                .concatMap(movieReviews -> {
+                    var update = new Update().inc("count", movieReviews.getValue().size());
+                    var sum = 0.0;
+                    var min = Double.MAX_VALUE;
+                    var max = -Double.MAX_VALUE;
+                    var buckets = new LinkedHashMap<String, Long>();
+                    for (var review : movieReviews.getValue()) {
+                        var rating = review.getRating();
+                        sum += rating;
+                        min = Math.min(min, rating);
+                        max = Math.max(max, rating);
+                        buckets.merge(bucket(rating), 1L, Long::sum);
+                    }
+                    update.inc("sum", sum).min("min", min).max("max", max);
+                    buckets.forEach(update::inc);
+                    return reactiveMongoTemplate.upsert(byMovieInfoId(movieReviews.getKey()), update, ReviewStats.class);
+                })
+                .then();
+    }
+
+    // min and max cannot be decremented: when the removed rating was one of the bounds they are
+    // recomputed from the remaining reviews of that movie, which must already be written. The
+    // updated stats are what the recomputed bounds are checked against.
+    public Mono<Void> recordRemoved(Review review) {
+        if (review.getMovieInfoId() == null || review.getRating() == null) {
+            return Mono.empty();
+        }
+        var rating = review.getRating();
+        var update = new Update()
+                .inc("count", -1)
+                .inc("sum", -rating)
+                .inc(bucket(rating), -1);
+        return reactiveMongoTemplate.findAndModify(byMovieInfoId(review.getMovieInfoId()), update,
+                        FindAndModifyOptions.options().returnNew(true), ReviewStats.class)
+                .filter(stats -> stats.getCount() <= 0
+                        || stats.getMin() == null || rating <= stats.getMin()
+                        || stats.getMax() == null || rating >= stats.getMax())
+                .flatMap(stats -> recomputeBounds(stats, 1));
+    }
+
+    public Mono<Void> recordUpdated(Review previous, Review updated) {
+        if (Objects.equals(previous.getRating(), updated.getRating())
+                && Objects.equals(previous.getMovieInfoId(), updated.getMovieInfoId())) {
+            return Mono.empty();
+        }
+        return recordRemoved(previous).then(recordAdded(updated));
+    }
+
+    // The bounds are only set if count and sum are still what they were before the aggregation
+    // ran. A review added or removed in between changes them, and a $min/$max applied after the
+    // aggregation read the reviews would otherwise be overwritten; the stats are read again and
+    // the bounds recomputed instead.
+    private Mono<Void> recomputeBounds(ReviewStats observed, int attempt) {
+        var movieInfoId = observed.getMovieInfoId();
+        var aggregation = newAggregation(
+                match(where("movieInfoId").is(movieInfoId).and("rating").ne(null)),
+                group("movieInfoId").min("rating").as("min").max("rating").as("max"));
+        var unchanged = query(where("movieInfoId").is(movieInfoId)
+                .and("count").is(observed.getCount())
+                .and("sum").is(observed.getSum()));
+        return reactiveMongoTemplate.aggregate(aggregation, Review.class, Document.class)
+                .next()
+                .map(bounds -> new Update().set("min", bounds.get("min")).set("max", bounds.get("max")))
+                .defaultIfEmpty(new Update().unset("min").unset("max"))
+                .flatMap(update -> reactiveMongoTemplate.updateFirst(unchanged, update, ReviewStats.class))
+                .flatMap(result -> {
+                    if (result.getMatchedCount() > 0) {
+                        return Mono.<Void>empty();
+                    }
+                    if (attempt >= MAX_RECOMPUTE_ATTEMPTS) {
+                        log.warn("Gave up recomputing rating bounds of movie {} after {} attempts", movieInfoId, attempt);
+                        return Mono.<Void>empty();
+                    }
+                    return findByMovieInfoId(movieInfoId)
+                            .flatMap(current -> recomputeBounds(current, attempt + 1));
+                });
+    }
+
+    // Recomputes every movie's stats from the review collection in one aggregation. Only
+    // needed for reviews written before the stats were maintained.
+    public Mono<Void> rebuild() {
+        var reviewCollection = reactiveMongoTemplate.getCollectionName(Review.class);
+        var statsCollection = reactiveMongoTemplate.getCollectionName(ReviewStats.class);
+        var pipeline = List.of(
+                Document.parse("{ $match: { movieInfoId: { $ne: null }, rating: { $ne: null } } }"),
+                Document.parse("{ $group: { _id: { movieInfoId: '$movieInfoId', bucket: { $floor: '$rating' } },"
+                        + " count: { $sum: 1 }, sum: { $sum: '$rating' }, min: { $min: '$rating' }, max: { $max: '$rating' } } }"),
+                Document.parse("{ $group: { _id: '$_id.movieInfoId', count: { $sum: '$count' }, sum: { $sum: '$sum' },"
+                        + " min: { $min: '$min' }, max: { $max: '$max' },"
+                        + " histogram: { $push: { k: { $toString: { $toLong: '$_id.bucket' } }, v: { $toLong: '$count' } } } } }"),
+                Document.parse("{ $addFields: { count: { $toLong: '$count' }, histogram: { $arrayToObject: '$histogram' } } }"),
+                new Document("$out", statsCollection));
+        return reactiveMongoTemplate.getCollection(reviewCollection)
+                .flatMapMany(collection -> Flux.from(collection.aggregate(pipeline).toCollection()))
+                .then();
+    }
+
+    public Mono<Void> removeByMovieInfoId(Long movieInfoId) {
+        return reactiveMongoTemplate.remove(byMovieInfoId(movieInfoId), ReviewStats.class)
+                .then();
+    }
+
+    public Mono<Boolean> isEmpty() {
+        return reactiveMongoTemplate.exists(new Query(), ReviewStats.class).map(exists -> !exists);
+    }
+
+    private static Query byMovieInfoId(Long movieInfoId) {
+        return query(where("movieInfoId").is(movieInfoId));
+    }
+
+    private static String bucket(double rating) {
+        return "histogram." + (long) Math.floor(rating);
+    }
+}
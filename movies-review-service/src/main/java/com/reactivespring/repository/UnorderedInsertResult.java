@@ -0,0 +1,21 @@
+package com.reactivespring.repository;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.Map;
+
+// Positions in the batch of the reviews that were not written, with the reason. Every other
+// review was written and has its id set.
+@Data
+@AllArgsConstructor
+public class UnorderedInsertResult {
+
+    private Map<Integer, String> rejected;
+    // the insert failed as a whole and these reviews could not be found afterwards
+    private Map<Integer, String> unknown;
+
+    public static UnorderedInsertResult allWritten() {
+        return new UnorderedInsertResult(Map.of(), Map.of());
+    }
+}
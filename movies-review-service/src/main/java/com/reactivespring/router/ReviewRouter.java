@@ -3,9 +3,11 @@ package com.reactivespring.router;
 import com.reactivespring.handler.ReviewHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import static org.springframework.web.reactive.function.server.RequestPredicates.contentType;
 import static org.springframework.web.reactive.function.server.RequestPredicates.path;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 
@@ -19,9 +21,12 @@ public class ReviewRouter {
                     builder
                             .GET("", reviewHandler::getReviews)
                             .POST("", reviewHandler::addReview)
+                            .POST("/bulk", contentType(MediaType.APPLICATION_NDJSON), reviewHandler::addReviews)
                             .PUT("/{id}", reviewHandler::updateReview)
                             .DELETE("/{id}", reviewHandler::deleteReview)
-                            .GET("/stream", reviewHandler::getReviewsStream);
+                            .DELETE("", reviewHandler::deleteReviews)
+                            .GET("/stream", reviewHandler::getReviewsStream)
+                            .GET("/stats", reviewHandler::getReviewStats);
                 })
                 .GET("/v1/helloworld", (request -> ServerResponse.ok().bodyValue("hello world")))
                 .build();
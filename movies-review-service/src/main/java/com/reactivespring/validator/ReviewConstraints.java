@@ -0,0 +1,67 @@
+package com.reactivespring.validator;
+
+import com.reactivespring.domain.Review;
+import com.reactivespring.exception.ReviewDataException;
+import org.springframework.stereotype.Component;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.lang.annotation.Annotation;
+import java.util.TreeSet;
+
+/**
+ * The Bean Validation constraints of {@link Review}, read once from its annotations and
+ * checked with plain getters. Every combination of violations maps to a rejection built up
+ * front, with the same message Bean Validation would produce, so neither path allocates.
+ */
+@Component
+public class ReviewConstraints {
+
+    private static final int MOVIE_INFO_ID_NULL = 1;
+    private static final int RATING_BELOW_MIN = 1 << 1;
+
+    private final long minRating;
+    // violation bits -> rejection
+    private final ReviewDataException[] rejections = new ReviewDataException[1 << 2];
+
+    public ReviewConstraints() {
+        var rating = annotation("rating", Min.class);
+        this.minRating = rating.value();
+        String[] messages = {annotation("movieInfoId", NotNull.class).message(), rating.message()};
+        for (int violations = 1; violations < rejections.length; violations++) {
+            var sorted = new TreeSet<String>();
+            for (int bit = 0; bit < messages.length; bit++) {
+                if ((violations & (1 << bit)) != 0) {
+                    sorted.add(messages[bit]);
+                }
+            }
+            rejections[violations] = ReviewDataException.stackless(String.join(", ", sorted));
+        }
+    }
+
+    // null when the review is valid
+    public ReviewDataException rejectionOf(Review review) {
+        var violations = 0;
+        if (review.getMovieInfoId() == null) {
+            violations |= MOVIE_INFO_ID_NULL;
+        }
+        var rating = review.getRating();
+        if (rating != null && rating < minRating) {
+            violations |= RATING_BELOW_MIN;
+        }
+        return violations == 0 ? null : rejections[violations];
+    }
+
+    private static <A extends Annotation> A annotation(String field, Class<A> type) {
+        A annotation;
+        try {
+            annotation = Review.class.getDeclaredField(field).getAnnotation(type);
+        } catch (NoSuchFieldException ex) {
+            throw new IllegalStateException("Review." + field + " no longer exists", ex);
+        }
+        if (annotation == null) {
+            throw new IllegalStateException("Review." + field + " is no longer annotated with @" + type.getSimpleName());
+        }
+        return annotation;
+    }
+}
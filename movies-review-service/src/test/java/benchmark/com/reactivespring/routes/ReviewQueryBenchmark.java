@@ -0,0 +1,132 @@
+package com.reactivespring.routes;
+
+import com.reactivespring.domain.Review;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Latency of a first page of one movie's reviews sorted by rating, read with a forced
+ * collection scan ({@code $natural} hint) and through the movieInfoId_rating index, as the
+ * collection grows. Run with {@code ./gradlew benchmark}; the sizes can be changed with
+ * {@code -Dbenchmark.sizes=...}. Each size tops up the collection left by the previous one.
+ */
+@Tag("benchmark")
+@SpringBootTest
+@ActiveProfiles("test")
+@TestPropertySource(properties = "spring.mongodb.embedded.version=4.0.21")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@Slf4j
+class ReviewQueryBenchmark {
+
+    static int[] SIZES = Arrays.stream(System.getProperty("benchmark.sizes", "100000,1000000,10000000").split(","))
+            .mapToInt(size -> Integer.parseInt(size.trim()))
+            .toArray();
+    static int MOVIES = 10_000;
+    static int PAGE_SIZE = 50;
+    static int SAMPLES = 50;
+
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @AfterAll
+    void tearDown() {
+        reactiveMongoTemplate.dropCollection(Review.class).block();
+    }
+
+    @Test
+    void scanVersusIndexSeek() {
+        var seeded = 0;
+        for (var size : SIZES) {
+            seed(seeded, size);
+            seeded = size;
+
+            var scan = sample(true);
+            var seek = sample(false);
+            log.info("reviews: {}, movies: {}, page size: {}", size, MOVIES, PAGE_SIZE);
+            log.info("  collection scan : {}", scan);
+            log.info("  index seek      : {}", seek);
+
+            assert seek.docsExamined < scan.docsExamined;
+        }
+    }
+
+    private void seed(int from, int to) {
+        Flux.range(from, to - from)
+                .map(i -> new Review(null, (long) (i % MOVIES), "Review " + i, (double) (i * 7 % 101) / 10))
+                .buffer(10_000)
+                .concatMap(reviews -> reactiveMongoTemplate.insertAll(reviews))
+                .blockLast();
+    }
+
+    private Sample sample(boolean scan) {
+        var random = new Random(42);
+        var nanos = new long[SAMPLES];
+        long docsExamined = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            var query = firstPage(random.nextInt(MOVIES), scan);
+            var start = System.nanoTime();
+            reactiveMongoTemplate.find(query, Review.class).then().block();
+            nanos[i] = System.nanoTime() - start;
+            docsExamined += docsExamined(query);
+        }
+        Arrays.sort(nanos);
+        return new Sample(nanos, docsExamined / SAMPLES);
+    }
+
+    private static Query firstPage(long movieInfoId, boolean scan) {
+        var query = query(where("movieInfoId").is(movieInfoId))
+                .with(Sort.by(Sort.Direction.DESC, "rating", "reviewId"))
+                .limit(PAGE_SIZE + 1);
+        return scan ? query.withHint("{ $natural: 1 }") : query;
+    }
+
+    private long docsExamined(Query query) {
+        var hint = query.getHint() != null ? query.getHint() : "movieInfoId_rating";
+        var find = new Document("find", reactiveMongoTemplate.getCollectionName(Review.class))
+                .append("filter", query.getQueryObject())
+                .append("sort", new Document("rating", -1).append("_id", -1))
+                .append("limit", query.getLimit())
+                .append("hint", hint.startsWith("{") ? Document.parse(hint) : hint);
+        var command = new Document("explain", find).append("verbosity", "executionStats");
+        var explained = reactiveMongoTemplate.executeCommand(command).block();
+        return ((Number) explained.get("executionStats", Document.class).get("totalDocsExamined")).longValue();
+    }
+
+    private static class Sample {
+        final long[] nanos;
+        final long docsExamined;
+
+        Sample(long[] nanos, long docsExamined) {
+            this.nanos = nanos;
+            this.docsExamined = docsExamined;
+        }
+
+        private double percentile(double percentile) {
+            return nanos[(int) Math.ceil(percentile * nanos.length) - 1] / 1_000_000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %,.2f ms, p99 %,.2f ms, %,d docs examined per query",
+                    percentile(0.5), percentile(0.99), docsExamined);
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package com.reactivespring.routes;
 
+import com.reactivespring.deadline.Deadline;
+import com.reactivespring.domain.BulkLine;
 import com.reactivespring.domain.Review;
+import com.reactivespring.domain.ReviewStats;
+import com.reactivespring.handler.ReviewHandler;
 import com.reactivespring.repository.ReviewReactiveRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,12 +15,23 @@ import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
 import org.springframework.boot.autoconfigure.mongo.embedded.EmbeddedMongoAutoConfiguration;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import reactor.test.StepVerifier;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
@@ -31,6 +47,12 @@ public class ReviewsIntgTest {
     @Autowired
     ReviewReactiveRepository reviewReactiveRepository;
 
+    @Autowired
+    ReviewStatsRepository reviewStatsRepository;
+
+    @Autowired
+    ReactiveMongoTemplate reactiveMongoTemplate;
+
     static String REVIEWS_URL = "/v1/reviews";
 
     @BeforeEach
@@ -48,6 +70,8 @@ public class ReviewsIntgTest {
     void tearDown() {
         reviewReactiveRepository.deleteAll()
                 .block();
+        reactiveMongoTemplate.remove(new Query(), ReviewStats.class)
+                .block();
     }
 
     @Test
@@ -129,6 +153,55 @@ public class ReviewsIntgTest {
 
     }
 
+    @Test
+    void getReviewsByMovieInfoIds_invalidId() {
+        webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoIds", "1,abc")
+                        .build())
+                .exchange()
+                .expectStatus()
+                .isBadRequest()
+                .expectBody(String.class)
+                .isEqualTo("movieInfoIds must be numbers : abc");
+    }
+
+    @Test
+    void getReviewsByMovieInfoId_ndjson() {
+        //when
+        var reviewsFlux = webTestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder.path(REVIEWS_URL)
+                        .queryParam("movieInfoId", "1")
+                        .build())
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(Review.class)
+                .getResponseBody();
+
+        //then
+        StepVerifier.create(reviewsFlux)
+                .expectNextCount(2)
+                .verifyComplete();
+    }
+
+    @Test
+    void getReviews_withDeadline() {
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL)
+                .header(Deadline.HEADER, "5000")
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectBodyList(Review.class)
+                .value(reviews -> assertEquals(3, reviews.size()));
+    }
+
     @Test
     void addReview() {
         //given
@@ -149,6 +222,63 @@ public class ReviewsIntgTest {
 
     }
 
+    @Test
+    void addReviews_bulk() {
+        //given
+        var lines = String.join("\n",
+                "{\"movieInfoId\": 5, \"comment\": \"Awesome Movie\", \"rating\": 9.0}",
+                "{\"movieInfoId\": 5, \"comment\": \"Good Movie\", \"rating\": 7.5}",
+                "{\"movieInfoId\": 5, \"comment\": ",
+                "{\"comment\": \"Bad Movie\", \"rating\": -1.0}",
+                "",
+                "{\"movieInfoId\": 6, \"comment\": \"Excellent Movie\", \"rating\": 8.0}");
+
+        //when
+        var results = webTestClient
+                .post()
+                .uri(REVIEWS_URL + "/bulk")
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .bodyValue(lines)
+                .exchange()
+                .expectStatus()
+                .is2xxSuccessful()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .returnResult(BulkLine.class)
+                .getResponseBody();
+
+        //then
+        StepVerifier.create(results)
+                .assertNext(bulkLine -> {
+                    assertEquals(1, bulkLine.getLine());
+                    assertEquals(BulkLine.Status.WRITTEN, bulkLine.getStatus());
+                    assertNotNull(bulkLine.getReview().getReviewId());
+                })
+                .assertNext(bulkLine -> assertEquals(2, bulkLine.getLine()))
+                .assertNext(bulkLine -> {
+                    assertEquals(3, bulkLine.getLine());
+                    assertEquals(BulkLine.Status.REJECTED, bulkLine.getStatus());
+                    assert bulkLine.getReason().startsWith("invalid json");
+                })
+                .assertNext(bulkLine -> assertEquals(
+                        "rating.movieInfoId : must not be null, rating.negative : please pass a non-negative value",
+                        bulkLine.getReason()))
+                .assertNext(bulkLine -> {
+                    assertEquals(6, bulkLine.getLine());
+                    assertEquals(BulkLine.Status.WRITTEN, bulkLine.getStatus());
+                })
+                .verifyComplete();
+        StepVerifier.create(reviewReactiveRepository.findReviewsByMovieInfoId(5L))
+                .expectNextCount(2)
+                .verifyComplete();
+        StepVerifier.create(reviewStatsRepository.findByMovieInfoId(5L))
+                .assertNext(reviewStats -> {
+                    assertEquals(2, reviewStats.getCount());
+                    assertEquals(7.5, reviewStats.getMin());
+                    assertEquals(9.0, reviewStats.getMax());
+                })
+                .verifyComplete();
+    }
+
     @Test
     void updateReview() {
         //given
@@ -189,4 +319,251 @@ public class ReviewsIntgTest {
                 .exchange()
                 .expectStatus().isNoContent();
     }
+
+    @Test
+    void updateReview_ifMatch() {
+        //given
+        var savedReview = reviewReactiveRepository.save(new Review(null, 1L, "Awesome Movie", 9.0)).block();
+        assert savedReview != null;
+        var reviewUpdate = new Review(null, 1L, "Not an Awesome Movie", 8.0);
+
+        //when
+        webTestClient
+                .put()
+                .uri(REVIEWS_URL + "/{id}", savedReview.getReviewId())
+                .ifMatch("\"" + savedReview.getVersion() + "\"")
+                .bodyValue(reviewUpdate)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("ETag", "\"" + (savedReview.getVersion() + 1) + "\"");
+
+        //then
+        webTestClient
+                .put()
+                .uri(REVIEWS_URL + "/{id}", savedReview.getReviewId())
+                .ifMatch("\"" + savedReview.getVersion() + "\"")
+                .bodyValue(new Review(null, 1L, "Lost update", 1.0))
+                .exchange()
+                .expectStatus().isEqualTo(412);
+        webTestClient
+                .delete()
+                .uri(REVIEWS_URL + "/{id}", savedReview.getReviewId())
+                .ifMatch("\"" + savedReview.getVersion() + "\"")
+                .exchange()
+                .expectStatus().isEqualTo(412);
+        webTestClient
+                .put()
+                .uri(REVIEWS_URL + "/{id}", "missing")
+                .ifMatch("\"0\"")
+                .bodyValue(reviewUpdate)
+                .exchange()
+                .expectStatus().isNotFound();
+        StepVerifier.create(reviewReactiveRepository.findById(savedReview.getReviewId()))
+                .assertNext(review -> assertEquals("Not an Awesome Movie", review.getComment()))
+                .verifyComplete();
+    }
+
+    @Test
+    void deleteReviews_byMovieInfoId() {
+        //given
+        reviewStatsRepository.rebuild().block();
+
+        //when
+        webTestClient
+                .delete()
+                .uri(REVIEWS_URL + "?movieInfoId={id}", 1)
+                .exchange()
+                .expectStatus().isNoContent();
+
+        //then
+        StepVerifier.create(reviewReactiveRepository.findAll())
+                .assertNext(review -> assertEquals(2L, review.getMovieInfoId()))
+                .verifyComplete();
+        StepVerifier.create(reviewStatsRepository.findByMovieInfoId(1L))
+                .verifyComplete();
+        webTestClient
+                .delete()
+                .uri(REVIEWS_URL)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    void getReviewStats_maintainedOnWrites() {
+        //given
+        var ids = List.of(7.5, 9.0, 4.0).stream()
+                .map(rating -> webTestClient
+                        .post()
+                        .uri(REVIEWS_URL)
+                        .bodyValue(new Review(null, 3L, "Awesome Movie", rating))
+                        .exchange()
+                        .expectStatus().isCreated()
+                        .expectBody(Review.class)
+                        .returnResult()
+                        .getResponseBody()
+                        .getReviewId())
+                .collect(Collectors.toList());
+
+        //when
+        webTestClient
+                .put()
+                .uri(REVIEWS_URL + "/{id}", ids.get(1))
+                .bodyValue(new Review(null, 3L, "Good Movie", 7.0))
+                .exchange()
+                .expectStatus().isOk();
+        webTestClient
+                .delete()
+                .uri(REVIEWS_URL + "/{id}", ids.get(2))
+                .exchange()
+                .expectStatus().isNoContent();
+
+        //then
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "/stats?movieInfoId={id}", 3)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.mean").isEqualTo(7.25)
+                .jsonPath("$.min").isEqualTo(7.0)
+                .jsonPath("$.max").isEqualTo(7.5)
+                .jsonPath("$.histogram['7']").isEqualTo(2)
+                .jsonPath("$.histogram['9']").isEqualTo(0)
+                .jsonPath("$.histogram['4']").isEqualTo(0);
+    }
+
+    @Test
+    void getReviewStats_boundsSurviveConcurrentWrites() {
+        for (long movieInfoId = 100; movieInfoId < 120; movieInfoId++) {
+            //given
+            var id = movieInfoId;
+            var highest = reviewReactiveRepository.save(new Review(null, id, "Best", 9.0)).block();
+            reviewReactiveRepository.save(new Review(null, id, "Good", 7.0)).block();
+            reviewStatsRepository.rebuild().block();
+            assert highest != null;
+
+            //when
+            // removing the highest rating recomputes max while higher ratings are being added
+            var removal = reviewReactiveRepository.deleteById(highest.getReviewId())
+                    .then(reviewStatsRepository.recordRemoved(highest))
+                    .subscribeOn(Schedulers.parallel());
+            var additions = Flux.range(0, 8)
+                    .flatMap(i -> reviewReactiveRepository.save(new Review(null, id, "Better", 8.0 + i * 0.25))
+                            .flatMap(reviewStatsRepository::recordAdded))
+                    .subscribeOn(Schedulers.parallel());
+            Mono.when(removal, additions).block();
+
+            //then
+            StepVerifier.create(reviewStatsRepository.findByMovieInfoId(id))
+                    .assertNext(reviewStats -> {
+                        assertEquals(9, reviewStats.getCount());
+                        assertEquals(7.0, reviewStats.getMin());
+                        assertEquals(9.75, reviewStats.getMax());
+                    })
+                    .verifyComplete();
+        }
+    }
+
+    @Test
+    void getReviewStats_rebuiltFromReviews() {
+        //given
+        reviewStatsRepository.rebuild().block();
+
+        //when
+        var stats = reviewStatsRepository.findByMovieInfoId(1L);
+
+        //then
+        StepVerifier.create(stats)
+                .assertNext(reviewStats -> {
+                    assertEquals(2, reviewStats.getCount());
+                    assertEquals(9.0, reviewStats.getMean());
+                    assertEquals(9.0, reviewStats.getMin());
+                    assertEquals(Map.of("9", 2L), reviewStats.getHistogram());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    void getReviewPage_sortedByRating() {
+        //given
+        var ratings = List.of(5.0, 9.5, 7.0, 9.5, 3.0);
+        reviewReactiveRepository.saveAll(ratings.stream()
+                        .map(rating -> new Review(null, 4L, "Movie " + rating, rating))
+                        .collect(Collectors.toList()))
+                .blockLast();
+        reviewReactiveRepository.save(new Review(null, 4L, "No rating", null)).block();
+
+        //when
+        var walked = new ArrayList<Review>();
+        String cursor = null;
+        var pages = 0;
+        do {
+            var uri = REVIEWS_URL + "?movieInfoId=4&sort=rating&limit=2" + (cursor != null ? "&after=" + cursor : "");
+            var result = webTestClient
+                    .get()
+                    .uri(uri)
+                    .exchange()
+                    .expectStatus().isOk()
+                    .expectBodyList(Review.class)
+                    .returnResult();
+            walked.addAll(result.getResponseBody());
+            cursor = result.getResponseHeaders().getFirst(ReviewHandler.NEXT_CURSOR_HEADER);
+            pages++;
+        } while (cursor != null);
+
+        //then
+        assertEquals(3, pages);
+        var walkedRatings = new ArrayList<Double>();
+        walked.forEach(review -> walkedRatings.add(review.getRating()));
+        assertEquals(Arrays.asList(9.5, 9.5, 7.0, 5.0, 3.0, null), walkedRatings);
+    }
+
+    @Test
+    void getReviewPage_recent() {
+        //when
+        var firstPage = webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Review.class)
+                .hasSize(2)
+                .returnResult();
+        var cursor = firstPage.getResponseHeaders().getFirst(ReviewHandler.NEXT_CURSOR_HEADER);
+
+        //then
+        assertNotNull(cursor);
+        webTestClient
+                .get()
+                .uri(REVIEWS_URL + "?limit=2&after=" + cursor)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(ReviewHandler.NEXT_CURSOR_HEADER)
+                .expectBodyList(Review.class)
+                .hasSize(1)
+                .value(reviews -> assertEquals("Awesome Movie", reviews.get(0).getComment()));
+    }
+
+    @Test
+    void getReviewPage_invalidRequest() {
+        List.of("?limit=0", "?limit=10&sort=rating", "?limit=10&sort=oldest", "?limit=10&after=@@@")
+                .forEach(query -> webTestClient
+                        .get()
+                        .uri(REVIEWS_URL + query)
+                        .exchange()
+                        .expectStatus().isBadRequest());
+    }
+
+    @Test
+    void declaredIndexesAreEnsured() {
+        var indexNames = reactiveMongoTemplate.indexOps(Review.class)
+                .getIndexInfo()
+                .map(IndexInfo::getName)
+                .collectList()
+                .block();
+
+        assert indexNames.contains("movieInfoId_rating");
+        assert indexNames.contains("movieInfoId_recent");
+    }
 }
@@ -3,8 +3,11 @@ package com.reactivespring.routes;
 import com.reactivespring.domain.Review;
 import com.reactivespring.exceptionhandler.GlobalErrorHandler;
 import com.reactivespring.handler.ReviewHandler;
+import com.reactivespring.domain.ReviewStats;
 import com.reactivespring.repository.ReviewReactiveRepository;
+import com.reactivespring.repository.ReviewStatsRepository;
 import com.reactivespring.router.ReviewRouter;
+import com.reactivespring.validator.ReviewConstraints;
 import com.reactivespring.validator.ReviewValidator;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,13 +20,14 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.mockito.Mockito.*;
 
 @WebFluxTest
-@ContextConfiguration(classes = {ReviewRouter.class, ReviewHandler.class, GlobalErrorHandler.class})
+@ContextConfiguration(classes = {ReviewRouter.class, ReviewHandler.class, GlobalErrorHandler.class, ReviewConstraints.class})
 @AutoConfigureWebTestClient
 public class ReviewsUnitTest {
 
@@ -33,6 +37,9 @@ public class ReviewsUnitTest {
     @MockBean
     private ReviewValidator reviewValidator;
 
+    @MockBean
+    private ReviewStatsRepository reviewStatsRepository;
+
     @Autowired
     private WebTestClient webTestClient;
 
@@ -44,7 +51,7 @@ public class ReviewsUnitTest {
                 new Review(null, 1L, "Awesome Movie1", 9.0),
                 new Review(null, 2L, "Excellent Movie", 8.0));
 
-        when(reviewReactiveRepository.findAll()).thenReturn(Flux.fromIterable(reviewList));
+        when(reviewReactiveRepository.findWithDeadline(any())).thenReturn(Flux.fromIterable(reviewList));
         doCallRealMethod().when(reviewValidator).validate(any(), any());
 
         //when
@@ -67,6 +74,7 @@ public class ReviewsUnitTest {
         var review = new Review(null, 1L, "Awesome Movie", 9.0);
 
         when(reviewReactiveRepository.save(isA(Review.class))).thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
+        when(reviewStatsRepository.recordAdded(isA(Review.class))).thenReturn(Mono.empty());
         doCallRealMethod().when(reviewValidator).validate(any(), any());
         //when
         webTestClient
@@ -109,8 +117,9 @@ public class ReviewsUnitTest {
 
         var reviewUpdate = new Review(null, 1L, "Not an Awesome Movie", 8.0);
 
-        when(reviewReactiveRepository.save(isA(Review.class))).thenReturn(Mono.just(new Review("abc", 1L, "Not an Awesome Movie", 8.0)));
-        when(reviewReactiveRepository.findById((String) any())).thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
+        when(reviewReactiveRepository.findAndUpdate("abc", null, "Not an Awesome Movie", 8.0))
+                .thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0, 0L)));
+        when(reviewStatsRepository.recordUpdated(isA(Review.class), isA(Review.class))).thenReturn(Mono.empty());
         doCallRealMethod().when(reviewValidator).validate(any(), any());
         //when
 
@@ -128,16 +137,37 @@ public class ReviewsUnitTest {
                     System.out.println("updatedReview : "+ updatedReview);
                     assertEquals(8.0,updatedReview.getRating());
                     assertEquals("Not an Awesome Movie", updatedReview.getComment());
+                    assertEquals(1L, updatedReview.getVersion());
                 });
 
     }
 
+    @Test
+    void updateReview_preconditionFailed() {
+        //given
+        var reviewUpdate = new Review(null, 1L, "Not an Awesome Movie", 8.0);
+        when(reviewReactiveRepository.findAndUpdate("abc", List.of(0L), "Not an Awesome Movie", 8.0)).thenReturn(Mono.empty());
+        when(reviewReactiveRepository.existsById("abc")).thenReturn(Mono.just(true));
+
+        //when
+        webTestClient
+                .put()
+                .uri("/v1/reviews/{id}", "abc")
+                .ifMatch("\"0\"")
+                .bodyValue(reviewUpdate)
+                .exchange()
+                .expectStatus().isEqualTo(412);
+
+        //then
+        verify(reviewStatsRepository, never()).recordUpdated(any(), any());
+    }
+
     @Test
     void deleteReview() {
         //given
         var reviewId= "abc";
-        when(reviewReactiveRepository.findById((String) any())).thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
-        when(reviewReactiveRepository.deleteById((String) any())).thenReturn(Mono.empty());
+        when(reviewReactiveRepository.findAndDelete("abc", null)).thenReturn(Mono.just(new Review("abc", 1L, "Awesome Movie", 9.0)));
+        when(reviewStatsRepository.recordRemoved(isA(Review.class))).thenReturn(Mono.empty());
         doCallRealMethod().when(reviewValidator).validate(any(), any());
 
         //when
@@ -148,5 +178,36 @@ public class ReviewsUnitTest {
                 .expectStatus().isNoContent();
     }
 
+    @Test
+    void getReviewStats() {
+        //given
+        when(reviewStatsRepository.findByMovieInfoId(1L))
+                .thenReturn(Mono.just(new ReviewStats(1L, 2, 17.0, 8.0, 9.0, Map.of("8", 1L, "9", 1L))));
+        when(reviewStatsRepository.findByMovieInfoId(2L)).thenReturn(Mono.empty());
+
+        //when
+        webTestClient
+                .get()
+                .uri("/v1/reviews/stats?movieInfoId=1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(2)
+                .jsonPath("$.mean").isEqualTo(8.5)
+                .jsonPath("$.histogram['9']").isEqualTo(1);
 
-}
\ No newline at end of file
+        //then
+        webTestClient
+                .get()
+                .uri("/v1/reviews/stats?movieInfoId=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.count").isEqualTo(0);
+        webTestClient
+                .get()
+                .uri("/v1/reviews/stats")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+}
@@ -0,0 +1,62 @@
+package com.reactivespring.validator;
+
+import com.reactivespring.domain.Review;
+import org.junit.jupiter.api.Test;
+
+import javax.validation.ConstraintViolation;
+import javax.validation.Validation;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ReviewConstraintsTest {
+
+    ReviewConstraints reviewConstraints = new ReviewConstraints();
+
+    @Test
+    void rejectionOf_matchesBeanValidation() {
+        //given
+        var validator = Validation.buildDefaultValidatorFactory().getValidator();
+        var reviews = List.of(
+                new Review(null, 1L, "Awesome Movie", 9.0),
+                new Review(null, 1L, "Unrated", null),
+                new Review(null, 1L, "Zero", 0.0),
+                new Review(null, null, "Awesome Movie", 9.0),
+                new Review(null, 1L, "Awesome Movie", -0.5),
+                new Review(null, null, "Awesome Movie", -9.0));
+
+        reviews.forEach(review -> {
+            //when
+            var rejection = reviewConstraints.rejectionOf(review);
+
+            //then
+            var violations = validator.validate(review);
+            if (violations.isEmpty()) {
+                assertNull(rejection);
+            } else {
+                var expected = violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining(", "));
+                assertEquals(expected, rejection.getMessage());
+            }
+        });
+    }
+
+    @Test
+    void rejectionOf_isSharedAndStackless() {
+        //given
+        var review = new Review(null, null, "Awesome Movie", -9.0);
+
+        //when
+        var rejection = reviewConstraints.rejectionOf(review);
+
+        //then
+        assertSame(rejection, reviewConstraints.rejectionOf(new Review(null, null, "Other", -1.0)));
+        assertEquals(0, rejection.getStackTrace().length);
+        assertEquals(rejection.getMessage(), new String(rejection.getBody()));
+    }
+}
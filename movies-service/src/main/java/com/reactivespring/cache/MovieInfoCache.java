@@ -0,0 +1,124 @@
+package com.reactivespring.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.deadline.Deadline;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.stream.MovieInfoBroadcaster;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+@Component
+@Slf4j
+public class MovieInfoCache {
+
+    private final MoviesInfoRestClient moviesInfoRestClient;
+    private final MovieInfoBroadcaster movieInfoBroadcaster;
+    private final AsyncCache<String, MovieInfo> cache;
+    private final boolean enabled;
+    private final boolean streamRefresh;
+
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter evictionCounter;
+
+    private Disposable streamSubscription;
+
+    public MovieInfoCache(MoviesInfoRestClient moviesInfoRestClient,
+                          MovieInfoBroadcaster movieInfoBroadcaster,
+                          MeterRegistry meterRegistry,
+                          @Value("${movieInfoCache.enabled:true}") boolean enabled,
+                          @Value("${movieInfoCache.maxSize:5000}") long maxSize,
+                          @Value("${movieInfoCache.ttl:5m}") Duration ttl,
+                          @Value("${movieInfoCache.streamRefresh:true}") boolean streamRefresh) {
+        this.moviesInfoRestClient = moviesInfoRestClient;
+        this.movieInfoBroadcaster = movieInfoBroadcaster;
+        this.enabled = enabled;
+        this.streamRefresh = streamRefresh;
+        this.hitCounter = meterRegistry.counter("movies.info.cache", "result", "hit");
+        this.missCounter = meterRegistry.counter("movies.info.cache", "result", "miss");
+        this.evictionCounter = meterRegistry.counter("movies.info.cache.evictions");
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .<String, MovieInfo>removalListener((movieId, movieInfo, cause) -> {
+                    if (cause.wasEvicted()) {
+                        evictionCounter.increment();
+                    }
+                })
+                .buildAsync();
+    }
+
+    public Mono<MovieInfo> retrieveMovieInfo(String movieId) {
+        if (!enabled) {
+            return moviesInfoRestClient.retrieveMovieInfo(movieId);
+        }
+        return Mono.defer(() -> {
+                    var cached = cache.getIfPresent(movieId);
+                    if (cached != null) {
+                        hitCounter.increment();
+                        return Mono.fromCompletionStage(cached.copy());
+                    }
+                    missCounter.increment();
+                    // Failed or empty loads are not kept by the cache, so errors are never served from it.
+                    // The load is shared by every caller waiting for this id, so it runs without any
+                    // caller's context; each caller waits on a copy of it, bounded by its own deadline.
+                    return Mono.fromCompletionStage(cache.get(movieId,
+                            (id, executor) -> moviesInfoRestClient.retrieveMovieInfo(id).toFuture()).copy());
+                })
+                .transform(Deadline::enforce);
+    }
+
+    // a tombstone evicts the deleted movie, any other update overwrites the cached copy
+    public void refresh(MovieInfo movieInfo) {
+        if (movieInfo.getMovieInfoId() == null) {
+            return;
+        }
+        if (Boolean.TRUE.equals(movieInfo.getDeleted())) {
+            cache.synchronous().invalidate(movieInfo.getMovieInfoId());
+            return;
+        }
+        cache.put(movieInfo.getMovieInfoId(), CompletableFuture.completedFuture(movieInfo));
+    }
+
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void subscribeToMovieInfoStream() {
+        if (!enabled || !streamRefresh) {
+            return;
+        }
+        // Updates missed while disconnected cannot be replayed, so every time the
+        // stream ends the cache is dropped and rebuilt from fresh reads.
+        streamSubscription = movieInfoBroadcaster.stream()
+                .doOnNext(this::refresh)
+                .doOnTerminate(this::invalidateAll)
+                .doOnError(ex -> log.warn("MovieInfo stream failed, cache invalidated : {}", ex.getMessage()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30)))
+                .repeatWhen(completed -> completed.delayElements(Duration.ofSeconds(1)))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void unsubscribeFromMovieInfoStream() {
+        if (streamSubscription != null) {
+            streamSubscription.dispose();
+        }
+    }
+}
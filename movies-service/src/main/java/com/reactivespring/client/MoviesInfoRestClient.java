@@ -1,19 +1,34 @@
 package com.reactivespring.client;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.reactivespring.deadline.Deadline;
 import com.reactivespring.domain.MovieInfo;
 import com.reactivespring.exception.MoviesInfoClientException;
 import com.reactivespring.exception.MoviesInfoServerException;
+import com.reactivespring.resilience.Bulkhead;
+import com.reactivespring.resilience.CircuitBreaker;
 import com.reactivespring.util.RetryUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.util.retry.Retry;
 
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Component
 @Slf4j
@@ -23,41 +38,162 @@ public class MoviesInfoRestClient {
     private String moviesInfoUrl;
 
     private WebClient webClient;
+    private RetryUtil retryUtil;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
+    private Duration defaultBudget;
 
-    public MoviesInfoRestClient(WebClient webClient) {
+    // movieId -> shared upstream call, so concurrent callers for the same id issue a single request
+    private final Map<String, Mono<MovieInfo>> inFlightMovieInfos = new ConcurrentHashMap<>();
+    private final Counter issuedCounter;
+    private final Counter coalescedCounter;
+
+    // Last ETag and body seen per movie id and per id list, sent back as If-None-Match. They
+    // outlive MovieInfoCache entries: once those expire, an unchanged document costs a 304.
+    private final Cache<String, Validated<MovieInfo>> movieInfoValidators;
+    private final Cache<String, Validated<List<MovieInfo>>> movieInfoListValidators;
+    private final Counter notModifiedCounter;
+
+    public MoviesInfoRestClient(@Qualifier("moviesInfoWebClient") WebClient webClient,
+                                RetryUtil retryUtil,
+                                @Qualifier("moviesInfoCircuitBreaker") CircuitBreaker circuitBreaker,
+                                @Qualifier("moviesInfoBulkhead") Bulkhead bulkhead,
+                                MeterRegistry meterRegistry,
+                                @Value("${restClient.movieInfoValidators.maxSize:20000}") long validatorsMaxSize,
+                                @Value("${deadline.defaultBudget:10s}") Duration defaultBudget) {
         this.webClient = webClient;
+        this.retryUtil = retryUtil;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.defaultBudget = defaultBudget;
+        this.issuedCounter = meterRegistry.counter("movies.info.client.requests", "outcome", "issued");
+        this.coalescedCounter = meterRegistry.counter("movies.info.client.requests", "outcome", "coalesced");
+        this.notModifiedCounter = meterRegistry.counter("movies.info.client.not.modified");
+        this.movieInfoValidators = Caffeine.newBuilder().maximumSize(validatorsMaxSize).build();
+        this.movieInfoListValidators = Caffeine.newBuilder().maximumSize(validatorsMaxSize).build();
     }
 
+    // The shared call belongs to no caller: it runs under the service's default budget, and each
+    // caller's own deadline only bounds its wait for it. A caller that gives up cancels its
+    // subscription, and the call itself is only cancelled once nobody is waiting for it.
+    // The trade-off is that movies-info-service is sent the default budget rather than what
+    // is left of the caller's: it can keep working for an impatient caller until that caller
+    // cancels, but never gives up on a call that later, more patient callers still wait for.
     public Mono<MovieInfo> retrieveMovieInfo(String movieId) {
+        return Mono.defer(() -> {
+            var issued = new AtomicBoolean();
+            var movieInfoMono = inFlightMovieInfos.computeIfAbsent(movieId, id -> {
+                issued.set(true);
+                return fetchMovieInfo(id)
+                        .transform(Deadline::enforce)
+                        .contextWrite(context -> context.put(Deadline.class, Deadline.after(defaultBudget)))
+                        .doFinally(signalType -> inFlightMovieInfos.remove(id))
+                        .share();
+            });
+            if (issued.get()) {
+                issuedCounter.increment();
+            } else {
+                coalescedCounter.increment();
+            }
+            return movieInfoMono.transform(Deadline::enforce);
+        });
+    }
+
+    private Mono<MovieInfo> fetchMovieInfo(String movieId) {
         final var url = moviesInfoUrl.concat("/{id}");
 
-        return webClient
-                .get()
-                .uri(url, movieId)
-                .retrieve()
-                .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
-                    log.info("Status code : {}", clientResponse.statusCode().value());
-                    if (clientResponse.statusCode().equals(HttpStatus.NOT_FOUND)) {
-                        return Mono.error(new MoviesInfoClientException(
-                                "There is no MovieInfo Available for the passed in Id : " + movieId,
-                                clientResponse.statusCode().value()));
-                    }
+        return Mono.defer(() -> {
+                    var validated = movieInfoValidators.getIfPresent(movieId);
+                    return webClient
+                            .get()
+                            .uri(url, movieId)
+                            .headers(headers -> {
+                                if (validated != null) {
+                                    headers.setIfNoneMatch(validated.getETag());
+                                }
+                            })
+                            .retrieve()
+                            .onStatus(HttpStatus::is4xxClientError, clientResponse -> {
+                                log.info("Status code : {}", clientResponse.statusCode().value());
+                                if (clientResponse.statusCode().equals(HttpStatus.NOT_FOUND)) {
+                                    movieInfoValidators.invalidate(movieId);
+                                    return Mono.error(new MoviesInfoClientException(
+                                            "There is no MovieInfo Available for the passed in Id : " + movieId,
+                                            clientResponse.statusCode().value()));
+                                }
 
-                    return clientResponse.bodyToMono(String.class)
-                            .flatMap(responseMessage -> Mono.error(new MoviesInfoClientException(
-                                    responseMessage, clientResponse.statusCode().value()
-                            )));
+                                return clientResponse.bodyToMono(String.class)
+                                        .flatMap(responseMessage -> Mono.error(new MoviesInfoClientException(
+                                                responseMessage, clientResponse.statusCode().value()
+                                        )));
+                            })
+                            .onStatus(HttpStatus::is5xxServerError, (clientResponse -> {
+                                log.info("Status code : {}", clientResponse.statusCode().value());
+                                return clientResponse.bodyToMono(String.class)
+                                        .flatMap(response -> Mono.error(new MoviesInfoServerException(response)));
+                            }))
+                            .toEntity(MovieInfo.class)
+                            .flatMap(entity -> notModifiedOr(entity, validated, movieInfoValidators, movieId));
                 })
-                .onStatus(HttpStatus::is5xxServerError, (clientResponse -> {
-                    log.info("Status code : {}", clientResponse.statusCode().value());
-                    return clientResponse.bodyToMono(String.class)
-                            .flatMap(response -> Mono.error(new MoviesInfoServerException(response)));
-                }))
-                .bodyToMono(MovieInfo.class)
-                .retryWhen(RetryUtil.retrySpec())
+                .transform(circuitBreaker::protect)
+                .transform(bulkhead::protect)
+                .transform(retryUtil::hedge)
+                .retryWhen(retryUtil.retrySpec())
                 .log();
     }
 
+    public Flux<MovieInfo> retrieveMovieInfos(List<String> movieIds) {
+        final var url = UriComponentsBuilder.fromHttpUrl(moviesInfoUrl)
+                .queryParam("ids", String.join(",", movieIds))
+                .buildAndExpand().toUriString();
+
+        return Mono.defer(() -> {
+                    var validated = movieInfoListValidators.getIfPresent(url);
+                    return webClient
+                            .get()
+                            .uri(url)
+                            .headers(headers -> {
+                                if (validated != null) {
+                                    headers.setIfNoneMatch(validated.getETag());
+                                }
+                            })
+                            .retrieve()
+                            .onStatus(HttpStatus::is4xxClientError, (clientResponse -> {
+                                log.info("Status code : {}", clientResponse.statusCode().value());
+                                return clientResponse.bodyToMono(String.class)
+                                        .flatMap(response -> Mono.error(new MoviesInfoClientException(response, clientResponse.statusCode().value())));
+                            }))
+                            .onStatus(HttpStatus::is5xxServerError, (clientResponse -> {
+                                log.info("Status code : {}", clientResponse.statusCode().value());
+                                return clientResponse.bodyToMono(String.class)
+                                        .flatMap(response -> Mono.error(new MoviesInfoServerException(response)));
+                            }))
+                            .toEntityList(MovieInfo.class)
+                            .flatMap(entity -> notModifiedOr(entity, validated, movieInfoListValidators, url));
+                })
+                .flatMapIterable(movieInfos -> movieInfos)
+                .transform(circuitBreaker::protectFlux)
+                .transform(bulkhead::protectFlux)
+                .retryWhen(retryUtil.retrySpec())
+                .transform(Deadline::enforceFlux);
+    }
+
+    // A 304 is answered with the copy held locally; a fresh body is kept along with its ETag.
+    private <T> Mono<T> notModifiedOr(ResponseEntity<T> entity, Validated<T> validated,
+                                      Cache<String, Validated<T>> validators, String key) {
+        if (entity.getStatusCode() == HttpStatus.NOT_MODIFIED && validated != null) {
+            notModifiedCounter.increment();
+            return Mono.just(validated.getValue());
+        }
+        var eTag = entity.getHeaders().getETag();
+        if (eTag != null && entity.getBody() != null) {
+            validators.put(key, new Validated<>(eTag, entity.getBody()));
+        }
+        return Mono.justOrEmpty(entity.getBody());
+    }
+
+    // The stream is shared by every subscriber of the broadcaster, so it must not carry the
+    // deadline of whichever request happened to open it.
     public Flux<MovieInfo> retrieveMovieInfoStream() {
 
         var url = moviesInfoUrl.concat("/stream");
@@ -75,7 +211,15 @@ public class MoviesInfoRestClient {
                             .flatMap(response -> Mono.error(new MoviesInfoServerException(response)));
                 }))
                 .bodyToFlux(MovieInfo.class)
-                .retryWhen(RetryUtil.retrySpec())
+                .retryWhen(retryUtil.retrySpec())
+                .contextWrite(context -> context.delete(Deadline.class))
                 .log();
     }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Validated<T> {
+        private final String eTag;
+        private final T value;
+    }
 }
@@ -1,18 +1,25 @@
 package com.reactivespring.client;
 
+import com.reactivespring.deadline.Deadline;
 import com.reactivespring.domain.Review;
 import com.reactivespring.exception.ReviewsClientException;
 import com.reactivespring.exception.ReviewsServerException;
+import com.reactivespring.resilience.Bulkhead;
+import com.reactivespring.resilience.CircuitBreaker;
 import com.reactivespring.util.RetryUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 @Component
 @Slf4j
 public class ReviewRestClient {
@@ -20,9 +27,21 @@ public class ReviewRestClient {
     @Value("${restClient.reviewsUrl}")
     private String reviewsUrl;
     private WebClient webClient;
+    private RetryUtil retryUtil;
+    private CircuitBreaker circuitBreaker;
+    private Bulkhead bulkhead;
+    private Bulkhead streamBulkhead;
 
-    public ReviewRestClient(WebClient webClient) {
+    public ReviewRestClient(@Qualifier("reviewsWebClient") WebClient webClient,
+                            RetryUtil retryUtil,
+                            @Qualifier("reviewsCircuitBreaker") CircuitBreaker circuitBreaker,
+                            @Qualifier("reviewsBulkhead") Bulkhead bulkhead,
+                            @Qualifier("reviewsStreamBulkhead") Bulkhead streamBulkhead) {
         this.webClient = webClient;
+        this.retryUtil = retryUtil;
+        this.circuitBreaker = circuitBreaker;
+        this.bulkhead = bulkhead;
+        this.streamBulkhead = streamBulkhead;
     }
 
     public Flux<Review> retrieveReviews(String movieId) {
@@ -48,7 +67,72 @@ public class ReviewRestClient {
                             .flatMap(response -> Mono.error(new ReviewsServerException(response)));
                 }))
                 .bodyToFlux(Review.class)
-                .retryWhen(RetryUtil.retrySpec());
+                .transform(circuitBreaker::protectFlux)
+                .transform(bulkhead::protectFlux)
+                .retryWhen(retryUtil.retrySpec())
+                .transform(Deadline::enforceFlux);
+    }
+
+    // Streams reviews as NDJSON; not retried, since a retry after the first element would replay it.
+    // A stream has no deadline, and none is sent downstream, which would cut it off mid-way.
+    // It holds a slot of its own bulkhead for as long as it is read, so slow consumers can only
+    // exhaust other streams and never the calls behind retrieveMovieById.
+    public Flux<Review> retrieveReviewStream(String movieId) {
+        final var url = UriComponentsBuilder.fromHttpUrl(reviewsUrl)
+                .queryParam("movieInfoId", movieId)
+                .buildAndExpand().toUriString();
+
+        return webClient
+                .get()
+                .uri(url)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .retrieve()
+                .onStatus(HttpStatus::is4xxClientError, (clientResponse -> {
+                    log.info("Status code : {}", clientResponse.statusCode().value());
+                    if(clientResponse.statusCode().equals(HttpStatus.NOT_FOUND)){
+                        return Mono.empty();
+                    }
+                    return clientResponse.bodyToMono(String.class)
+                            .flatMap(response -> Mono.error(new ReviewsClientException(response)));
+                }))
+                .onStatus(HttpStatus::is5xxServerError, (clientResponse -> {
+                    log.info("Status code : {}", clientResponse.statusCode().value());
+                    return clientResponse.bodyToMono(String.class)
+                            .flatMap(response -> Mono.error(new ReviewsServerException(response)));
+                }))
+                .bodyToFlux(Review.class)
+                .transform(circuitBreaker::protectFlux)
+                .transform(streamBulkhead::protectFlux)
+                .contextWrite(context -> context.delete(Deadline.class));
+    }
+
+    public Flux<Review> retrieveReviews(List<String> movieIds) {
+        final var url = UriComponentsBuilder.fromHttpUrl(reviewsUrl)
+                .queryParam("movieInfoIds", String.join(",", movieIds))
+                .buildAndExpand().toUriString();
+
+        return webClient
+                .get()
+                .uri(url)
+                .retrieve()
+                .onStatus(HttpStatus::is4xxClientError, (clientResponse -> {
+                    log.info("Status code : {}", clientResponse.statusCode().value());
+                    if(clientResponse.statusCode().equals(HttpStatus.NOT_FOUND)){
+                        return Mono.empty();
+                    }
+                    return clientResponse.bodyToMono(String.class)
+                            .flatMap(response -> Mono.error(new ReviewsClientException(response)));
+                }))
+                .onStatus(HttpStatus::is5xxServerError, (clientResponse -> {
+                    log.info("Status code : {}", clientResponse.statusCode().value());
+                    return clientResponse.bodyToMono(String.class)
+                            .flatMap(response -> Mono.error(new ReviewsServerException(response)));
+                }))
+                .bodyToFlux(Review.class)
+                .transform(circuitBreaker::protectFlux)
+                .transform(bulkhead::protectFlux)
+                .retryWhen(retryUtil.retrySpec())
+                .transform(Deadline::enforceFlux);
     }
 
 
@@ -0,0 +1,43 @@
+package com.reactivespring.config;
+
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.exception.ReviewsClientException;
+import com.reactivespring.resilience.Bulkhead;
+import com.reactivespring.resilience.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(ResilienceProperties.class)
+public class ResilienceConfig {
+
+    // 4xx responses say nothing about the health of the downstream, so they do not trip the breaker
+    @Bean
+    public CircuitBreaker moviesInfoCircuitBreaker(ResilienceProperties properties, MeterRegistry meterRegistry) {
+        return new CircuitBreaker("movies-info", properties.getMovieInfo(),
+                ex -> !(ex instanceof MoviesInfoClientException), meterRegistry);
+    }
+
+    @Bean
+    public CircuitBreaker reviewsCircuitBreaker(ResilienceProperties properties, MeterRegistry meterRegistry) {
+        return new CircuitBreaker("reviews", properties.getReviews(),
+                ex -> !(ex instanceof ReviewsClientException), meterRegistry);
+    }
+
+    @Bean
+    public Bulkhead moviesInfoBulkhead(ResilienceProperties properties, MeterRegistry meterRegistry) {
+        return new Bulkhead("movies-info", properties.getMovieInfo().getMaxConcurrentCalls(), meterRegistry);
+    }
+
+    @Bean
+    public Bulkhead reviewsBulkhead(ResilienceProperties properties, MeterRegistry meterRegistry) {
+        return new Bulkhead("reviews", properties.getReviews().getMaxConcurrentCalls(), meterRegistry);
+    }
+
+    @Bean
+    public Bulkhead reviewsStreamBulkhead(ResilienceProperties properties, MeterRegistry meterRegistry) {
+        return new Bulkhead("reviews-stream", properties.getReviews().getMaxConcurrentStreams(), meterRegistry);
+    }
+}
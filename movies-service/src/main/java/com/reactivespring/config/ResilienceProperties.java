@@ -0,0 +1,28 @@
+package com.reactivespring.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "rest-client.resilience")
+public class ResilienceProperties {
+
+    private Downstream movieInfo = new Downstream();
+    private Downstream reviews = new Downstream();
+
+    @Data
+    public static class Downstream {
+        // circuit breaker
+        private int windowSize = 20;
+        private int failureRateThreshold = 50;
+        private Duration waitDurationInOpenState = Duration.ofSeconds(10);
+        private int permittedCallsInHalfOpenState = 3;
+        // bulkhead
+        private int maxConcurrentCalls = 50;
+        // streams hold their slot for as long as their consumer keeps reading, so they are
+        // capped separately and cannot crowd out request/response calls
+        private int maxConcurrentStreams = 20;
+    }
+}
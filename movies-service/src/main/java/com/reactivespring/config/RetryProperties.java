@@ -0,0 +1,34 @@
+package com.reactivespring.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+
+@Data
+@ConfigurationProperties(prefix = "rest-client.retry")
+public class RetryProperties {
+
+    private int maxAttempts = 3;
+    private Duration firstBackoff = Duration.ofMillis(250);
+    private Duration maxBackoff = Duration.ofSeconds(2);
+    private double jitter = 0.5;
+    private Budget budget = new Budget();
+    private Hedge hedge = new Hedge();
+
+    @Data
+    public static class Budget {
+        // retries earned per request, e.g. 0.2 allows one retry for every five requests
+        private double ratio = 0.2;
+        // retries that can be spent in a burst before the ratio kicks in
+        private int maxRetries = 10;
+    }
+
+    @Data
+    public static class Hedge {
+        private boolean enabled = false;
+        private double percentile = 0.95;
+        private Duration minDelay = Duration.ofMillis(20);
+        private int sampleSize = 128;
+    }
+}
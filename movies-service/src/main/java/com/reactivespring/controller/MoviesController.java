@@ -1,43 +1,174 @@
 package com.reactivespring.controller;
 
+import com.reactivespring.cache.MovieInfoCache;
 import com.reactivespring.client.MoviesInfoRestClient;
 import com.reactivespring.client.ReviewRestClient;
 import com.reactivespring.domain.Movie;
+import com.reactivespring.domain.MovieBatchResponse;
 import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.Review;
+import com.reactivespring.exception.BulkheadFullException;
+import com.reactivespring.exception.CallNotPermittedException;
+import com.reactivespring.stream.MovieInfoBroadcaster;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
 @RestController
 @RequestMapping("/v1/movies")
+@Slf4j
 public class MoviesController {
 
+    @Value("${movies.speculativeFanout:false}")
+    private boolean speculativeFanout;
+
+    @Value("${movies.reviews.streamPrefetch:256}")
+    private int reviewsStreamPrefetch;
+
+    @Value("${movies.batch.maxIds:200}")
+    private int batchMaxIds;
+
+    @Value("${movies.batch.chunkSize:50}")
+    private int batchChunkSize;
+
+    @Value("${movies.batch.concurrency:4}")
+    private int batchConcurrency;
+
+    private MovieInfoCache movieInfoCache;
     private MoviesInfoRestClient moviesInfoRestClient;
     private ReviewRestClient reviewRestClient;
+    private MovieInfoBroadcaster movieInfoBroadcaster;
 
-    public MoviesController(MoviesInfoRestClient moviesInfoRestClient, ReviewRestClient reviewRestClient) {
+    public MoviesController(MovieInfoCache movieInfoCache, MoviesInfoRestClient moviesInfoRestClient,
+                            ReviewRestClient reviewRestClient, MovieInfoBroadcaster movieInfoBroadcaster) {
+        this.movieInfoCache = movieInfoCache;
         this.moviesInfoRestClient = moviesInfoRestClient;
         this.reviewRestClient = reviewRestClient;
+        this.movieInfoBroadcaster = movieInfoBroadcaster;
     }
 
     @GetMapping("/{id}")
-    public Mono<Movie> retrieveMovieById(@PathVariable("id") String movieId) {
-        return moviesInfoRestClient.retrieveMovieInfo(movieId)
+    public Mono<Movie> retrieveMovieById(@PathVariable("id") String movieId,
+                                         @RequestParam(value = "speculative", required = false) Boolean speculative) {
+        if (speculative != null ? speculative : speculativeFanout) {
+            return retrieveMovieByIdSpeculatively(movieId);
+        }
+        return movieInfoCache.retrieveMovieInfo(movieId)
                 .flatMap(movieInfo -> {
                     final var reviewsListMono = reviewRestClient.retrieveReviews(movieId)
                             .collectList();
-                    return reviewsListMono.map(reviews -> new Movie(movieInfo, reviews));
+                    return reviewsListMono.map(reviews -> new Movie(movieInfo, reviews))
+                            .onErrorResume(MoviesController::isRejected, ex -> Mono.just(degradedMovie(movieInfo, ex)));
                 });
     }
 
+    // Both downstream calls start together; zip cancels the in-flight reviews call
+    // as soon as the movie info lookup fails (e.g. 404).
+    private Mono<Movie> retrieveMovieByIdSpeculatively(String movieId) {
+        var reviewsMono = reviewRestClient.retrieveReviews(movieId)
+                .collectList()
+                .map(Optional::of)
+                .onErrorResume(MoviesController::isRejected, ex -> {
+                    log.warn("Reviews unavailable for movie {} : {}", movieId, ex.getMessage());
+                    return Mono.just(Optional.empty());
+                });
+        return Mono.zip(movieInfoCache.retrieveMovieInfo(movieId), reviewsMono,
+                (movieInfo, reviews) -> reviews.map(reviewList -> new Movie(movieInfo, reviewList))
+                        .orElseGet(() -> new Movie(movieInfo, List.of(), true)));
+    }
+
+    // The circuit breaker and bulkhead fail fast; a movie without its reviews is still worth returning.
+    private static boolean isRejected(Throwable ex) {
+        return ex instanceof CallNotPermittedException || ex instanceof BulkheadFullException;
+    }
+
+    private Movie degradedMovie(MovieInfo movieInfo, Throwable ex) {
+        log.warn("Reviews unavailable for movie {} : {}", movieInfo.getMovieInfoId(), ex.getMessage());
+        return new Movie(movieInfo, List.of(), true);
+    }
+
+    // Reviews are relayed as they are decoded and requested upstream in bounded batches,
+    // so memory per request does not grow with the number of reviews.
+    @GetMapping(value = "/{id}/reviews", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<Review> retrieveReviewsByMovieId(@PathVariable("id") String movieId) {
+        return reviewRestClient.retrieveReviewStream(movieId)
+                .limitRate(reviewsStreamPrefetch);
+    }
+
+    @GetMapping(params = "ids")
+    public Mono<ResponseEntity<MovieBatchResponse>> retrieveMoviesByIds(@RequestParam("ids") List<String> movieIds) {
+        var distinctIds = new ArrayList<>(new LinkedHashSet<>(movieIds));
+        if (distinctIds.size() > batchMaxIds) {
+            return Mono.just(ResponseEntity.badRequest().build());
+        }
+
+        return Flux.fromIterable(distinctIds)
+                .buffer(batchChunkSize)
+                .flatMapSequential(this::retrieveMovieChunk, batchConcurrency)
+                .reduceWith(MovieBatchResponse::new, MovieBatchResponse::merge)
+                .map(ResponseEntity::ok);
+    }
+
+    private Mono<MovieBatchResponse> retrieveMovieChunk(List<String> movieIds) {
+        var movieInfosMono = moviesInfoRestClient.retrieveMovieInfos(movieIds)
+                .collectMap(MovieInfo::getMovieInfoId, Function.identity());
+        var reviewsMono = reviewRestClient.retrieveReviews(movieIds)
+                .collectMultimap(review -> String.valueOf(review.getMovieInfoId()))
+                .map(Optional::of)
+                .onErrorResume(MoviesController::isRejected, ex -> {
+                    log.warn("Reviews unavailable for movies {} : {}", movieIds, ex.getMessage());
+                    return Mono.just(Optional.empty());
+                });
+
+        return Mono.zip(movieInfosMono, reviewsMono)
+                .map(tuple -> toBatchResponse(movieIds, tuple.getT1(), tuple.getT2()))
+                .onErrorResume(ex -> {
+                    log.error("Exception while retrieving movies {} : {}", movieIds, ex.getMessage());
+                    return Mono.just(MovieBatchResponse.failed(movieIds, ex.getMessage()));
+                });
+    }
+
+    private MovieBatchResponse toBatchResponse(List<String> movieIds,
+                                               Map<String, MovieInfo> movieInfos,
+                                               Optional<Map<String, Collection<Review>>> reviewsByMovieId) {
+        var reviews = reviewsByMovieId.orElse(Map.of());
+        var reviewsDegraded = reviewsByMovieId.isEmpty();
+        var response = new MovieBatchResponse();
+        movieIds.forEach(movieId -> {
+            var movieInfo = movieInfos.get(movieId);
+            if (movieInfo == null) {
+                response.getFailures().put(movieId, "There is no MovieInfo Available for the passed in Id : " + movieId);
+                return;
+            }
+            var reviewList = reviews.getOrDefault(movieId, List.of())
+                    .stream()
+                    .collect(Collectors.toList());
+            response.getMovies().add(new Movie(movieInfo, reviewList, reviewsDegraded));
+        });
+        return response;
+    }
+
     @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
     public Flux<MovieInfo> retrieveMovieInfos(){
 
-        return moviesInfoRestClient.retrieveMovieInfoStream();
+        return movieInfoBroadcaster.stream();
     }
 
 }
@@ -0,0 +1,47 @@
+package com.reactivespring.deadline;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Point in time by which the caller needs an answer. It travels in the Reactor context and is
+ * sent downstream as the remaining budget in milliseconds, so clock skew between hosts does not matter.
+ */
+public final class Deadline {
+
+    public static final String HEADER = "X-Deadline-Ms";
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(Duration budget) {
+        return new Deadline(System.nanoTime() + budget.toNanos());
+    }
+
+    public static Optional<Deadline> current(ContextView context) {
+        return context.getOrEmpty(Deadline.class);
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+    }
+
+    public static <T> Mono<T> enforce(Mono<T> call) {
+        return Mono.deferContextual(context -> current(context)
+                .map(deadline -> call.timeout(deadline.remaining()))
+                .orElse(call));
+    }
+
+    public static <T> Flux<T> enforceFlux(Flux<T> call) {
+        return Flux.deferContextual(context -> current(context)
+                .map(deadline -> call.timeout(deadline.remaining()))
+                .orElse(call));
+    }
+}
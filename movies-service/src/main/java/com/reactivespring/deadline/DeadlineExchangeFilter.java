@@ -0,0 +1,22 @@
+package com.reactivespring.deadline;
+
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.ExchangeFunction;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sends the remaining budget of the current request's deadline to the downstream service.
+ */
+public class DeadlineExchangeFilter implements ExchangeFilterFunction {
+
+    @Override
+    public Mono<ClientResponse> filter(ClientRequest request, ExchangeFunction next) {
+        return Mono.deferContextual(context -> next.exchange(Deadline.current(context)
+                .map(deadline -> ClientRequest.from(request)
+                        .header(Deadline.HEADER, String.valueOf(deadline.remaining().toMillis()))
+                        .build())
+                .orElse(request)));
+    }
+}
@@ -0,0 +1,55 @@
+package com.reactivespring.deadline;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+@Component
+public class DeadlineWebFilter implements WebFilter {
+
+    // Long-lived streams have no natural deadline. They are told apart by route, since curl and
+    // browsers ask for them with Accept: */*.
+    private static final List<PathPattern> STREAMING_ROUTES = List.of(
+            PathPatternParser.defaultInstance.parse("/v1/movies/stream"),
+            PathPatternParser.defaultInstance.parse("/v1/movies/{id}/reviews"));
+
+    private final Duration defaultBudget;
+    private final Duration maxBudget;
+
+    public DeadlineWebFilter(@Value("${deadline.defaultBudget:10s}") Duration defaultBudget,
+                             @Value("${deadline.maxBudget:30s}") Duration maxBudget) {
+        this.defaultBudget = defaultBudget;
+        this.maxBudget = maxBudget;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        var path = exchange.getRequest().getPath().pathWithinApplication();
+        if (STREAMING_ROUTES.stream().anyMatch(route -> route.matches(path))) {
+            return chain.filter(exchange);
+        }
+        var deadline = Deadline.after(budget(exchange.getRequest().getHeaders().getFirst(Deadline.HEADER)));
+        return chain.filter(exchange)
+                .contextWrite(context -> context.put(Deadline.class, deadline));
+    }
+
+    private Duration budget(String requestedBudgetMillis) {
+        if (requestedBudgetMillis == null) {
+            return defaultBudget;
+        }
+        try {
+            var requested = Duration.ofMillis(Long.parseLong(requestedBudgetMillis));
+            return requested.compareTo(maxBudget) > 0 ? maxBudget : requested;
+        } catch (NumberFormatException ex) {
+            return defaultBudget;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.reactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MovieBatchResponse {
+
+    private List<Movie> movies = new ArrayList<>();
+    // movie id -> reason the aggregate could not be built
+    private Map<String, String> failures = new LinkedHashMap<>();
+
+    public static MovieBatchResponse failed(List<String> movieIds, String reason) {
+        var response = new MovieBatchResponse();
+        movieIds.forEach(movieId -> response.getFailures().put(movieId, reason));
+        return response;
+    }
+
+    public MovieBatchResponse merge(MovieBatchResponse other) {
+        movies.addAll(other.getMovies());
+        failures.putAll(other.getFailures());
+        return this;
+    }
+}
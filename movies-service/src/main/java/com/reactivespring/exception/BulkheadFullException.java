@@ -0,0 +1,9 @@
+package com.reactivespring.exception;
+
+public class BulkheadFullException extends RuntimeException {
+
+    // thrown on the fail-fast path, so the stack trace is not worth its cost
+    public BulkheadFullException(String name) {
+        super("Bulkhead " + name + " is full", null, false, false);
+    }
+}
@@ -0,0 +1,9 @@
+package com.reactivespring.exception;
+
+public class CallNotPermittedException extends RuntimeException {
+
+    // thrown on the fail-fast path, so the stack trace is not worth its cost
+    public CallNotPermittedException(String name) {
+        super("Circuit breaker " + name + " is open", null, false, false);
+    }
+}
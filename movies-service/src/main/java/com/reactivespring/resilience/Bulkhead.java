@@ -0,0 +1,63 @@
+package com.reactivespring.resilience;
+
+import com.reactivespring.exception.BulkheadFullException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps the number of concurrent calls to a downstream. Calls over the cap are rejected
+ * immediately instead of queuing for a connection.
+ */
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrentCalls;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter rejectionCounter;
+
+    public Bulkhead(String name, int maxConcurrentCalls, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.maxConcurrentCalls = maxConcurrentCalls;
+        this.rejectionCounter = meterRegistry.counter("movies.client.rejections", "name", name, "reason", "bulkhead_full");
+        Gauge.builder("movies.client.bulkhead.in.flight", inFlight, AtomicInteger::get)
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    public <T> Mono<T> protect(Mono<T> call) {
+        return Mono.defer(() -> {
+            if (!tryAcquire()) {
+                rejectionCounter.increment();
+                return Mono.error(new BulkheadFullException(name));
+            }
+            return call.doFinally(signalType -> inFlight.decrementAndGet());
+        });
+    }
+
+    public <T> Flux<T> protectFlux(Flux<T> call) {
+        return Flux.defer(() -> {
+            if (!tryAcquire()) {
+                rejectionCounter.increment();
+                return Flux.error(new BulkheadFullException(name));
+            }
+            return call.doFinally(signalType -> inFlight.decrementAndGet());
+        });
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            var current = inFlight.get();
+            if (current >= maxConcurrentCalls) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.reactivespring.resilience;
+
+import com.reactivespring.config.ResilienceProperties;
+import com.reactivespring.exception.CallNotPermittedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Lock-free circuit breaker. While closed, outcomes are counted in a tumbling window of
+ * {@code windowSize} calls packed into one long (calls in the high half, failures in the low half);
+ * the breaker opens when a full window reaches the failure rate threshold. The state and everything
+ * that belongs to it (when it opened, the half-open permits and successes) is one immutable
+ * {@link Snapshot}, so every transition is a single compare-and-set.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private static final long ONE_CALL = 1L << 32;
+
+    private final String name;
+    private final int windowSize;
+    private final int failureRateThreshold;
+    private final long waitDurationInOpenStateNanos;
+    private final int permittedCallsInHalfOpenState;
+    private final Predicate<Throwable> recordFailure;
+    private final MeterRegistry meterRegistry;
+    private final Counter rejectionCounter;
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.CLOSED);
+    private final AtomicLong window = new AtomicLong();
+
+    public CircuitBreaker(String name, ResilienceProperties.Downstream properties,
+                          Predicate<Throwable> recordFailure, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.windowSize = properties.getWindowSize();
+        this.failureRateThreshold = properties.getFailureRateThreshold();
+        this.waitDurationInOpenStateNanos = properties.getWaitDurationInOpenState().toNanos();
+        this.permittedCallsInHalfOpenState = properties.getPermittedCallsInHalfOpenState();
+        this.recordFailure = recordFailure;
+        this.meterRegistry = meterRegistry;
+        this.rejectionCounter = meterRegistry.counter("movies.client.rejections", "name", name, "reason", "circuit_open");
+        Gauge.builder("movies.client.circuitbreaker.state", snapshot, current -> current.get().state.ordinal())
+                .description("0 = closed, 1 = open, 2 = half open")
+                .tag("name", name)
+                .register(meterRegistry);
+    }
+
+    public <T> Mono<T> protect(Mono<T> call) {
+        return Mono.defer(() -> {
+            if (!tryAcquirePermission()) {
+                rejectionCounter.increment();
+                return Mono.error(new CallNotPermittedException(name));
+            }
+            return call.doOnSuccess(value -> onSuccess())
+                    .doOnError(this::onError)
+                    .doOnCancel(this::onCancel);
+        });
+    }
+
+    public <T> Flux<T> protectFlux(Flux<T> call) {
+        return Flux.defer(() -> {
+            if (!tryAcquirePermission()) {
+                rejectionCounter.increment();
+                return Flux.error(new CallNotPermittedException(name));
+            }
+            return call.doOnComplete(this::onSuccess)
+                    .doOnError(this::onError)
+                    .doOnCancel(this::onCancel);
+        });
+    }
+
+    public State getState() {
+        return snapshot.get().state;
+    }
+
+    public void transitionToOpenState() {
+        transition(snapshot.get(), Snapshot.open(System.nanoTime()));
+    }
+
+    // closes the breaker and forgets the outcomes counted so far, even if it was already closed
+    public void reset() {
+        transition(snapshot.get(), Snapshot.CLOSED);
+        window.set(0);
+    }
+
+    boolean tryAcquirePermission() {
+        while (true) {
+            var current = snapshot.get();
+            if (current.state == State.CLOSED) {
+                return true;
+            }
+            if (current.state == State.OPEN) {
+                if (System.nanoTime() - current.openedAtNanos < waitDurationInOpenStateNanos) {
+                    return false;
+                }
+                // losers of this race see HALF_OPEN on the next pass and compete for its permits
+                transition(current, Snapshot.halfOpen(current.openedAtNanos, permittedCallsInHalfOpenState));
+                continue;
+            }
+            if (current.halfOpenPermits == 0) {
+                return false;
+            }
+            if (transition(current, current.withPermits(current.halfOpenPermits - 1))) {
+                return true;
+            }
+        }
+    }
+
+    private void onSuccess() {
+        while (true) {
+            var current = snapshot.get();
+            if (current.state == State.CLOSED) {
+                record(ONE_CALL);
+                return;
+            }
+            if (current.state != State.HALF_OPEN) {
+                return;
+            }
+            var successes = current.halfOpenSuccesses + 1;
+            var next = successes >= permittedCallsInHalfOpenState ? Snapshot.CLOSED : current.withSuccesses(successes);
+            if (transition(current, next)) {
+                return;
+            }
+        }
+    }
+
+    private void onError(Throwable ex) {
+        if (!recordFailure.test(ex)) {
+            onSuccess();
+            return;
+        }
+        var current = snapshot.get();
+        if (current.state == State.HALF_OPEN) {
+            // a probe that fails after another one reopened the breaker has nothing left to do
+            transition(current, Snapshot.open(System.nanoTime()));
+        } else if (current.state == State.CLOSED) {
+            record(ONE_CALL + 1);
+        }
+    }
+
+    // a cancelled probe proves nothing, so its half-open permit is handed back
+    private void onCancel() {
+        while (true) {
+            var current = snapshot.get();
+            if (current.state != State.HALF_OPEN
+                    || transition(current, current.withPermits(current.halfOpenPermits + 1))) {
+                return;
+            }
+        }
+    }
+
+    private void record(long outcome) {
+        var updated = window.addAndGet(outcome);
+        var calls = updated >>> 32;
+        var failures = updated & 0xFFFFFFFFL;
+        // only the caller that manages to reset a full window evaluates it
+        if (calls >= windowSize && window.compareAndSet(updated, 0)
+                && failures * 100 >= (long) failureRateThreshold * calls) {
+            var current = snapshot.get();
+            if (current.state == State.CLOSED) {
+                transition(current, Snapshot.open(System.nanoTime()));
+            }
+        }
+    }
+
+    // One compare-and-set; only its winner runs the side effects of entering a new state.
+    private boolean transition(Snapshot from, Snapshot to) {
+        if (from.state == to.state && from.state != State.HALF_OPEN) {
+            return false;
+        }
+        if (!snapshot.compareAndSet(from, to)) {
+            return false;
+        }
+        if (from.state != to.state) {
+            if (to.state == State.CLOSED) {
+                window.set(0);
+            }
+            log.warn("Circuit breaker {} transitioned from {} to {}", name, from.state, to.state);
+            meterRegistry.counter("movies.client.circuitbreaker.transitions",
+                    "name", name, "from", from.state.name(), "to", to.state.name()).increment();
+        }
+        return true;
+    }
+
+    private static final class Snapshot {
+
+        static final Snapshot CLOSED = new Snapshot(State.CLOSED, 0, 0, 0);
+
+        final State state;
+        final long openedAtNanos;
+        final int halfOpenPermits;
+        final int halfOpenSuccesses;
+
+        private Snapshot(State state, long openedAtNanos, int halfOpenPermits, int halfOpenSuccesses) {
+            this.state = state;
+            this.openedAtNanos = openedAtNanos;
+            this.halfOpenPermits = halfOpenPermits;
+            this.halfOpenSuccesses = halfOpenSuccesses;
+        }
+
+        static Snapshot open(long openedAtNanos) {
+            return new Snapshot(State.OPEN, openedAtNanos, 0, 0);
+        }
+
+        static Snapshot halfOpen(long openedAtNanos, int permits) {
+            return new Snapshot(State.HALF_OPEN, openedAtNanos, permits, 0);
+        }
+
+        Snapshot withPermits(int permits) {
+            return new Snapshot(state, openedAtNanos, permits, halfOpenSuccesses);
+        }
+
+        Snapshot withSuccesses(int successes) {
+            return new Snapshot(state, openedAtNanos, halfOpenPermits, successes);
+        }
+    }
+}
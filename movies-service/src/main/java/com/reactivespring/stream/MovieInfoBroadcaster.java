@@ -0,0 +1,75 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.domain.MovieInfo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans the movie info stream out to any number of subscribers over a single upstream connection.
+ * The connection is opened by the first subscriber and closed when the last one leaves.
+ */
+@Component
+@Slf4j
+public class MovieInfoBroadcaster {
+
+    public enum OverflowStrategy {
+        // a slow subscriber skips the oldest buffered updates and keeps the newest ones
+        DROP_OLDEST,
+        // a slow subscriber is failed and disconnected once its buffer is full
+        DISCONNECT
+    }
+
+    private final Flux<MovieInfo> sharedStream;
+    private final int bufferSize;
+    private final OverflowStrategy overflowStrategy;
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Counter upstreamSubscriptionCounter;
+    private final Counter droppedCounter;
+    private final Counter disconnectedCounter;
+
+    public MovieInfoBroadcaster(MoviesInfoRestClient moviesInfoRestClient,
+                                MeterRegistry meterRegistry,
+                                @Value("${movieInfoStream.bufferSize:256}") int bufferSize,
+                                @Value("${movieInfoStream.overflowStrategy:DROP_OLDEST}") OverflowStrategy overflowStrategy) {
+        this.bufferSize = bufferSize;
+        this.overflowStrategy = overflowStrategy;
+        this.upstreamSubscriptionCounter = meterRegistry.counter("movies.info.stream.upstream.subscriptions");
+        this.droppedCounter = meterRegistry.counter("movies.info.stream.dropped");
+        this.disconnectedCounter = meterRegistry.counter("movies.info.stream.disconnected");
+        meterRegistry.gauge("movies.info.stream.subscribers", subscribers);
+        this.sharedStream = Flux.defer(() -> {
+                    upstreamSubscriptionCounter.increment();
+                    return moviesInfoRestClient.retrieveMovieInfoStream();
+                })
+                .publish()
+                .refCount(1);
+    }
+
+    // Every subscriber drains its own bounded buffer, so a slow one never holds back the others
+    // or the shared upstream.
+    public Flux<MovieInfo> stream() {
+        Flux<MovieInfo> buffered;
+        if (overflowStrategy == OverflowStrategy.DISCONNECT) {
+            buffered = sharedStream.onBackpressureBuffer(bufferSize, movieInfo -> {
+                        disconnectedCounter.increment();
+                        log.warn("Disconnecting slow MovieInfo stream subscriber, buffer of {} is full", bufferSize);
+                    },
+                    BufferOverflowStrategy.ERROR);
+        } else {
+            buffered = sharedStream.onBackpressureBuffer(bufferSize, movieInfo -> droppedCounter.increment(),
+                    BufferOverflowStrategy.DROP_OLDEST);
+        }
+        return buffered
+                .doOnSubscribe(subscription -> subscribers.incrementAndGet())
+                .doFinally(signalType -> subscribers.decrementAndGet());
+    }
+}
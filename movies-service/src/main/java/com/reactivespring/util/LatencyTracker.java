@@ -0,0 +1,38 @@
+package com.reactivespring.util;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the latest {@code sampleSize} latencies in a ring buffer to estimate percentiles.
+ */
+public class LatencyTracker {
+
+    private final AtomicLongArray samples;
+    private final AtomicLong recorded = new AtomicLong();
+
+    public LatencyTracker(int sampleSize) {
+        this.samples = new AtomicLongArray(sampleSize);
+    }
+
+    public void record(long latencyMillis) {
+        var index = recorded.getAndIncrement() % samples.length();
+        samples.set((int) index, latencyMillis);
+    }
+
+    public Duration percentile(double percentile) {
+        var count = (int) Math.min(recorded.get(), samples.length());
+        if (count == 0) {
+            return null;
+        }
+        var snapshot = new long[count];
+        for (int i = 0; i < count; i++) {
+            snapshot[i] = samples.get(i);
+        }
+        Arrays.sort(snapshot);
+        var rank = (int) Math.ceil(percentile * count) - 1;
+        return Duration.ofMillis(snapshot[Math.max(0, rank)]);
+    }
+}
@@ -1,19 +1,85 @@
 package com.reactivespring.util;
 
+import com.reactivespring.config.RetryProperties;
 import com.reactivespring.exception.MoviesInfoServerException;
 import com.reactivespring.exception.ReviewsServerException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
 import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
-import reactor.util.retry.RetrySpec;
-
-import java.time.Duration;
 
+@Component
 public class RetryUtil {
 
-    public static Retry retrySpec() {
-        return RetrySpec.fixedDelay(3, Duration.ofSeconds(1))
-                .filter((ex) -> ex instanceof MoviesInfoServerException || ex instanceof ReviewsServerException)
+    private final RetryProperties properties;
+    private final RetryBudget retryBudget;
+    private final LatencyTracker latencyTracker;
+    private final Counter retryCounter;
+    private final Counter budgetExhaustedCounter;
+    private final Counter hedgeCounter;
+
+    public RetryUtil(RetryProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.retryBudget = new RetryBudget(properties.getBudget().getRatio(), properties.getBudget().getMaxRetries());
+        this.latencyTracker = new LatencyTracker(properties.getHedge().getSampleSize());
+        this.retryCounter = meterRegistry.counter("movies.client.retries", "outcome", "retried");
+        this.budgetExhaustedCounter = meterRegistry.counter("movies.client.retries", "outcome", "budget_exhausted");
+        this.hedgeCounter = meterRegistry.counter("movies.client.hedges");
+    }
+
+    // The budget earns its deposit when the returned Retry is subscribed to, i.e. once for every
+    // outbound request, including a pipeline that is subscribed again. Only retries that will
+    // actually happen withdraw from it: the filter runs before maxAttempts is checked.
+    public Retry retrySpec() {
+        var backoff = Retry.backoff(properties.getMaxAttempts(), properties.getFirstBackoff())
+                .maxBackoff(properties.getMaxBackoff())
+                .jitter(properties.getJitter())
+                .filter(ex -> ex instanceof MoviesInfoServerException || ex instanceof ReviewsServerException)
+                .doBeforeRetryAsync(this::withdrawRetry)
                 .onRetryExhaustedThrow(((retryBackoffSpec, retrySignal) -> Exceptions.propagate(retrySignal.failure())));
+        return Retry.from(retrySignals -> {
+            retryBudget.deposit();
+            return backoff.generateCompanion(retrySignals);
+        });
+    }
+
+    // Fires a second attempt once the first has been outstanding for longer than the tracked
+    // percentile latency, and takes whichever signals first; the loser is cancelled.
+    public <T> Mono<T> hedge(Mono<T> call) {
+        var timedCall = call.elapsed()
+                .map(elapsed -> {
+                    latencyTracker.record(elapsed.getT1());
+                    return elapsed.getT2();
+                });
+        if (!properties.getHedge().isEnabled()) {
+            return timedCall;
+        }
+        return Mono.defer(() -> {
+            var hedgeDelay = latencyTracker.percentile(properties.getHedge().getPercentile());
+            if (hedgeDelay == null) {
+                return timedCall;
+            }
+            if (hedgeDelay.compareTo(properties.getHedge().getMinDelay()) < 0) {
+                hedgeDelay = properties.getHedge().getMinDelay();
+            }
+            var hedgedCall = Mono.delay(hedgeDelay)
+                    .then(Mono.defer(() -> {
+                        hedgeCounter.increment();
+                        return timedCall;
+                    }));
+            return Mono.firstWithSignal(timedCall, hedgedCall);
+        });
+    }
 
+    // an empty budget ends the chain with the failure that would have been retried
+    private Mono<Void> withdrawRetry(Retry.RetrySignal retrySignal) {
+        if (retryBudget.tryWithdraw()) {
+            retryCounter.increment();
+            return Mono.empty();
+        }
+        budgetExhaustedCounter.increment();
+        return Mono.error(retrySignal.failure());
     }
-}
\ No newline at end of file
+}
@@ -2,18 +2,40 @@ package com.reactivespring.controller;
 
 
 import com.github.tomakehurst.wiremock.client.WireMock;
+import com.reactivespring.cache.MovieInfoCache;
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.client.ReviewRestClient;
+import com.reactivespring.deadline.Deadline;
 import com.reactivespring.domain.Movie;
+import com.reactivespring.domain.MovieBatchResponse;
+import com.reactivespring.domain.MovieInfo;
+import com.reactivespring.domain.Review;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.resilience.CircuitBreaker;
+import com.reactivespring.stream.MovieInfoBroadcaster;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.autoconfigure.web.client.AutoConfigureWebClient;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.cloud.contract.wiremock.AutoConfigureWireMock;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.TimeoutException;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -25,16 +47,45 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 @TestPropertySource(properties = {
         "restClient.movieInfoUrl=http://localhost:8084/v1/movieinfos",
         "restClient.reviewsUrl=http://localhost:8084/v1/reviews",
+        "movieInfoCache.streamRefresh=false",
 })
 public class MoviesControllerIntgTest {
 
+    private static final Logger log = LoggerFactory.getLogger(MoviesControllerIntgTest.class);
+
     @Autowired
     WebTestClient webTestClient;
 
+    @Autowired
+    MoviesInfoRestClient moviesInfoRestClient;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    ReviewRestClient reviewRestClient;
+
+    @Autowired
+    MovieInfoCache movieInfoCache;
+
+    @Autowired
+    MovieInfoBroadcaster movieInfoBroadcaster;
+
+    @Autowired
+    @Qualifier("moviesInfoCircuitBreaker")
+    CircuitBreaker moviesInfoCircuitBreaker;
+
+    @Autowired
+    @Qualifier("reviewsCircuitBreaker")
+    CircuitBreaker reviewsCircuitBreaker;
+
 
     @BeforeEach
     void setUp() {
         WireMock.reset();
+        movieInfoCache.invalidateAll();
+        moviesInfoCircuitBreaker.reset();
+        reviewsCircuitBreaker.reset();
     }
 
     @Test
@@ -174,4 +225,480 @@ public class MoviesControllerIntgTest {
 
         WireMock.verify(4, getRequestedFor(urlPathMatching("/v1/reviews*")));
     }
-}
\ No newline at end of file
+
+    @Test
+    void retrieveMoviesByIds() {
+        //given
+        stubFor(get(urlPathEqualTo("/v1/movieinfos"))
+                .withQueryParam("ids", equalTo("1,2,3"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("[{\"movieInfoId\": \"1\", \"name\": \"Batman Begins\", \"year\": 2005, \"cast\": [\"Christian Bale\"]}," +
+                                "{\"movieInfoId\": \"2\", \"name\": \"The Dark Knight\", \"year\": 2008, \"cast\": [\"Christian Bale\"]}]")));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoIds", equalTo("1,2,3"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        //when
+        webTestClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/v1/movies")
+                        .queryParam("ids", "1,2,3")
+                        .build())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(MovieBatchResponse.class)
+                .consumeWith(result -> {
+                    var response = Objects.requireNonNull(result.getResponseBody());
+                    assertEquals(2, response.getMovies().size());
+                    assertEquals(2, response.getMovies().get(0).getReviewList().size());
+                    assertEquals(0, response.getMovies().get(1).getReviewList().size());
+                    assertEquals(1, response.getFailures().size());
+                    assert response.getFailures().containsKey("3");
+                });
+
+        //then
+        WireMock.verify(1, getRequestedFor(urlPathEqualTo("/v1/movieinfos")));
+        WireMock.verify(1, getRequestedFor(urlPathEqualTo("/v1/reviews")));
+    }
+
+    @Test
+    void retrieveMovieById_speculative_latency() {
+        //given
+        var movieId = "abc";
+        var delayMillis = 1000;
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")
+                        .withFixedDelay(delayMillis)));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")
+                        .withFixedDelay(delayMillis)));
+
+        // warm up the client so neither measurement pays for connection setup
+        retrieveMovie(movieId, false);
+
+        //when
+        var sequentialMillis = retrieveMovie(movieId, false);
+        var speculativeMillis = retrieveMovie(movieId, true);
+
+        //then
+        log.info("sequential : {} ms, speculative : {} ms", sequentialMillis, speculativeMillis);
+        WireMock.verify(3, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId)));
+        WireMock.verify(3, getRequestedFor(urlPathEqualTo("/v1/reviews")));
+        // the fixed delays are lower bounds, so only the speculative bound has a margin: it has
+        // a whole delay of headroom before it would be as slow as two sequential calls
+        assert sequentialMillis >= 2L * delayMillis;
+        assert speculativeMillis < 2L * delayMillis;
+    }
+
+    @Test
+    void retrieveMovieById_speculative_404_cancelsReviews() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withStatus(404)));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")
+                        .withFixedDelay(3000)));
+
+        //when
+        var start = System.nanoTime();
+        webTestClient.get()
+                .uri("/v1/movies/{id}?speculative=true", movieId)
+                .exchange()
+                .expectStatus().isNotFound();
+        var elapsedMillis = Duration.ofNanos(System.nanoTime() - start).toMillis();
+
+        //then
+        assert elapsedMillis < 3000;
+    }
+
+    private long retrieveMovie(String movieId, boolean speculative) {
+        movieInfoCache.invalidateAll();
+        var start = System.nanoTime();
+        webTestClient.get()
+                .uri("/v1/movies/{id}?speculative={speculative}", movieId, speculative)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Movie.class)
+                .consumeWith(result -> assertEquals(2, Objects.requireNonNull(result.getResponseBody()).getReviewList().size()));
+        return Duration.ofNanos(System.nanoTime() - start).toMillis();
+    }
+
+    @Test
+    void retrieveMovieInfo_concurrentCallersAreCoalesced() {
+        //given
+        var movieId = "abc";
+        var callers = 100;
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")
+                        .withFixedDelay(500)));
+        var issuedBefore = meterRegistry.counter("movies.info.client.requests", "outcome", "issued").count();
+        var coalescedBefore = meterRegistry.counter("movies.info.client.requests", "outcome", "coalesced").count();
+
+        //when
+        var movieInfos = Flux.range(0, callers)
+                .flatMap(i -> moviesInfoRestClient.retrieveMovieInfo(movieId), callers)
+                .collectList()
+                .block();
+
+        //then
+        assertEquals(callers, Objects.requireNonNull(movieInfos).size());
+        movieInfos.forEach(movieInfo -> assertEquals("Batman Begins", movieInfo.getName()));
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId)));
+        assertEquals(1, meterRegistry.counter("movies.info.client.requests", "outcome", "issued").count() - issuedBefore);
+        assertEquals(callers - 1, meterRegistry.counter("movies.info.client.requests", "outcome", "coalesced").count() - coalescedBefore);
+    }
+
+    @Test
+    void retrieveMovieInfo_concurrentCallersShareError() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withStatus(404)
+                        .withFixedDelay(500)));
+
+        //when
+        var errors = Flux.range(0, 10)
+                .flatMap(i -> moviesInfoRestClient.retrieveMovieInfo(movieId)
+                        .map(movieInfo -> "ok")
+                        .onErrorResume(MoviesInfoClientException.class, ex -> Mono.just(ex.getMessage())), 10)
+                .collectList()
+                .block();
+
+        //then
+        assertEquals(10, Objects.requireNonNull(errors).size());
+        errors.forEach(message -> assertEquals("There is no MovieInfo Available for the passed in Id : " + movieId, message));
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId)));
+    }
+
+    @Test
+    void retrieveMovieById_servedFromCache() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+        var hitsBefore = meterRegistry.counter("movies.info.cache", "result", "hit").count();
+
+        //when
+        for (int i = 0; i < 3; i++) {
+            webTestClient.get()
+                    .uri("/v1/movies/{id}", movieId)
+                    .exchange()
+                    .expectStatus().isOk();
+        }
+
+        //then
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId)));
+        assertEquals(2, meterRegistry.counter("movies.info.cache", "result", "hit").count() - hitsBefore);
+    }
+
+    @Test
+    void retrieveMovieInfo_notModifiedReusesLocalCopy() {
+        //given
+        var movieId = "etag-1";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("ETag", "\"3\"")
+                        .withBodyFile("movieinfo.json")));
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .withHeader("If-None-Match", equalTo("\"3\""))
+                .willReturn(aResponse()
+                        .withStatus(304)
+                        .withHeader("ETag", "\"3\"")));
+        var notModifiedBefore = meterRegistry.counter("movies.info.client.not.modified").count();
+
+        //when
+        var first = moviesInfoRestClient.retrieveMovieInfo(movieId).block();
+        var second = moviesInfoRestClient.retrieveMovieInfo(movieId).block();
+
+        //then
+        assertEquals("Batman Begins", first.getName());
+        assertEquals(first, second);
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId))
+                .withHeader("If-None-Match", equalTo("\"3\"")));
+        assertEquals(1, meterRegistry.counter("movies.info.client.not.modified").count() - notModifiedBefore);
+    }
+
+    @Test
+    void retrieveMovieById_cacheRefreshedByStreamUpdate() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+        movieInfoCache.retrieveMovieInfo(movieId).block();
+
+        //when
+        movieInfoCache.refresh(new MovieInfo(movieId, "Batman Begins 2", 2005, List.of("Christian Bale"), null));
+
+        //then
+        StepVerifier.create(movieInfoCache.retrieveMovieInfo(movieId))
+                .assertNext(movieInfo -> assertEquals("Batman Begins 2", movieInfo.getName()))
+                .verifyComplete();
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId)));
+    }
+
+    @Test
+    void retrieveMovieById_cacheInvalidatedByStreamDelete() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+        movieInfoCache.retrieveMovieInfo(movieId).block();
+        var tombstone = new MovieInfo();
+        tombstone.setMovieInfoId(movieId);
+        tombstone.setDeleted(true);
+
+        //when
+        movieInfoCache.refresh(tombstone);
+
+        //then
+        movieInfoCache.retrieveMovieInfo(movieId).block();
+        WireMock.verify(2, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId)));
+    }
+
+    @Test
+    void connectionPoolGaugesAreExported() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("reviews.json")));
+
+        //when
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk();
+
+        //then
+        assert !meterRegistry.find("reactor.netty.connection.provider.total.connections")
+                .tag("name", "movies-info").gauges().isEmpty();
+        assert !meterRegistry.find("reactor.netty.connection.provider.total.connections")
+                .tag("name", "reviews").gauges().isEmpty();
+    }
+
+    @Test
+    void retrieveMovieById_reviewsCircuitOpen_degraded() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")));
+        reviewsCircuitBreaker.transitionToOpenState();
+
+        //when
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(Movie.class)
+                .consumeWith(result -> {
+                    var movie = Objects.requireNonNull(result.getResponseBody());
+                    assertEquals("Batman Begins", movie.getMovieInfo().getName());
+                    assertEquals(0, movie.getReviewList().size());
+                    assert movie.isReviewsDegraded();
+                });
+
+        //then
+        WireMock.verify(0, getRequestedFor(urlPathEqualTo("/v1/reviews")));
+    }
+
+    @Test
+    void retrieveReviewsByMovieId_stream() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .withHeader("Accept", equalTo("application/x-ndjson"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/x-ndjson")
+                        .withBody("{\"reviewId\": \"1\", \"movieInfoId\": 1, \"comment\": \"Awesome Movie\", \"rating\": 9.0}\n" +
+                                "{\"reviewId\": \"2\", \"movieInfoId\": 1, \"comment\": \"Excellent Movie\", \"rating\": 8.0}\n")));
+
+        //when
+        var reviewsFlux = webTestClient.get()
+                .uri("/v1/movies/{id}/reviews", movieId)
+                .accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Review.class)
+                .getResponseBody();
+
+        //then
+        StepVerifier.create(reviewsFlux)
+                .assertNext(review -> assertEquals("Awesome Movie", review.getComment()))
+                .assertNext(review -> assertEquals("Excellent Movie", review.getComment()))
+                .verifyComplete();
+    }
+
+    @Test
+    void retrieveReviewStream_usesItsOwnBulkhead() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/x-ndjson")
+                        .withBody("{\"reviewId\": \"1\", \"movieInfoId\": 1, \"comment\": \"Awesome Movie\", \"rating\": 9.0}\n")
+                        .withFixedDelay(2000)));
+
+        //when
+        var stream = reviewRestClient.retrieveReviewStream(movieId).subscribe();
+
+        //then
+        try {
+            assertEquals(1.0, meterRegistry.get("movies.client.bulkhead.in.flight")
+                    .tag("name", "reviews-stream").gauge().value());
+            assertEquals(0.0, meterRegistry.get("movies.client.bulkhead.in.flight")
+                    .tag("name", "reviews").gauge().value());
+        } finally {
+            stream.dispose();
+        }
+    }
+
+    @Test
+    void retrieveReviewsByMovieId_streamHasNoDeadline() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlPathEqualTo("/v1/reviews"))
+                .withQueryParam("movieInfoId", equalTo(movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/x-ndjson")
+                        .withBody("{\"reviewId\": \"1\", \"movieInfoId\": 1, \"comment\": \"Awesome Movie\", \"rating\": 9.0}\n")));
+
+        //when
+        var reviewsFlux = webTestClient.get()
+                .uri("/v1/movies/{id}/reviews", movieId)
+                .accept(MediaType.ALL)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Review.class)
+                .getResponseBody();
+        StepVerifier.create(reviewsFlux)
+                .expectNextCount(1)
+                .verifyComplete();
+
+        //then
+        WireMock.verify(getRequestedFor(urlPathEqualTo("/v1/reviews"))
+                .withoutHeader(Deadline.HEADER));
+    }
+
+    @Test
+    void retrieveMovieById_deadlineExceeded() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")
+                        .withFixedDelay(2000)));
+
+        //when
+        webTestClient.get()
+                .uri("/v1/movies/{id}", movieId)
+                .header(Deadline.HEADER, "300")
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+
+        //then
+        // the shared call is sent the 10s default budget, not what is left of the caller's 300ms
+        WireMock.verify(getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId))
+                .withHeader(Deadline.HEADER, matching("9\\d{3}|10000")));
+    }
+
+    @Test
+    void retrieveMovieInfo_coalescedCallersKeepTheirOwnDeadlines() {
+        //given
+        var movieId = "abc";
+        stubFor(get(urlEqualTo("/v1/movieinfos/" + movieId))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("movieinfo.json")
+                        .withFixedDelay(500)));
+
+        //when
+        // the impatient caller subscribes first, so it is the one that starts the shared call
+        var viaClient = Mono.zip(
+                        waitWithDeadline(moviesInfoRestClient.retrieveMovieInfo(movieId), Duration.ofMillis(100)),
+                        waitWithDeadline(moviesInfoRestClient.retrieveMovieInfo(movieId), Duration.ofSeconds(5)))
+                .block();
+        var viaCache = Mono.zip(
+                        waitWithDeadline(movieInfoCache.retrieveMovieInfo(movieId), Duration.ofMillis(100)),
+                        waitWithDeadline(movieInfoCache.retrieveMovieInfo(movieId), Duration.ofSeconds(5)))
+                .block();
+
+        //then
+        assertEquals("timeout", Objects.requireNonNull(viaClient).getT1());
+        assertEquals("Batman Begins", viaClient.getT2());
+        assertEquals("timeout", Objects.requireNonNull(viaCache).getT1());
+        assertEquals("Batman Begins", viaCache.getT2());
+        WireMock.verify(2, getRequestedFor(urlEqualTo("/v1/movieinfos/" + movieId)));
+    }
+
+    private Mono<String> waitWithDeadline(Mono<MovieInfo> movieInfoMono, Duration budget) {
+        return movieInfoMono.map(MovieInfo::getName)
+                .onErrorResume(TimeoutException.class, ex -> Mono.just("timeout"))
+                .contextWrite(context -> context.put(Deadline.class, Deadline.after(budget)));
+    }
+
+    @Test
+    void retrieveMovieInfos_streamSharedAcrossSubscribers() {
+        //given
+        stubFor(get(urlEqualTo("/v1/movieinfos/stream"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/x-ndjson")
+                        .withBody("{\"movieInfoId\": \"abc\", \"name\": \"Batman Begins\", \"year\": 2005, \"cast\": [\"Christian Bale\"]}\n" +
+                                "{\"movieInfoId\": \"def\", \"name\": \"The Dark Knight\", \"year\": 2008, \"cast\": [\"Christian Bale\"]}\n")
+                        .withFixedDelay(1000)));
+        var subscribers = 500;
+
+        //when
+        var received = Flux.range(0, subscribers)
+                .flatMap(i -> movieInfoBroadcaster.stream().collectList(), subscribers)
+                .collectList()
+                .block(Duration.ofSeconds(10));
+
+        //then
+        assertEquals(subscribers, Objects.requireNonNull(received).size());
+        received.forEach(movieInfos -> assertEquals(2, movieInfos.size()));
+        WireMock.verify(1, getRequestedFor(urlEqualTo("/v1/movieinfos/stream")));
+    }
+}
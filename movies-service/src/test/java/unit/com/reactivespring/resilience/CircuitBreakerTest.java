@@ -0,0 +1,186 @@
+package com.reactivespring.resilience;
+
+import com.reactivespring.config.ResilienceProperties;
+import com.reactivespring.exception.BulkheadFullException;
+import com.reactivespring.exception.CallNotPermittedException;
+import com.reactivespring.exception.ReviewsClientException;
+import com.reactivespring.exception.ReviewsServerException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CircuitBreakerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void opensWhenFailureRateIsReached() {
+        //given
+        var circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+
+        //when
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(circuitBreaker.protect(Mono.error(new ReviewsServerException("Review Service Unavailable"))))
+                    .expectError(ReviewsServerException.class)
+                    .verify();
+        }
+
+        //then
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        StepVerifier.create(circuitBreaker.protect(Mono.just("review")))
+                .expectError(CallNotPermittedException.class)
+                .verify();
+        assertEquals(1, meterRegistry.counter("movies.client.rejections", "name", "reviews", "reason", "circuit_open").count());
+    }
+
+    @Test
+    void ignoresClientErrors() {
+        //given
+        var circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+
+        //when
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(circuitBreaker.protect(Mono.error(new ReviewsClientException("Bad Request"))))
+                    .expectError(ReviewsClientException.class)
+                    .verify();
+        }
+
+        //then
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void closesAfterSuccessfulProbes() throws InterruptedException {
+        //given
+        var circuitBreaker = circuitBreaker(Duration.ofMillis(50));
+        circuitBreaker.transitionToOpenState();
+        Thread.sleep(100);
+
+        //when
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(circuitBreaker.protectFlux(Flux.just("review")))
+                    .expectNext("review")
+                    .verifyComplete();
+        }
+
+        //then
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertEquals(1, meterRegistry.counter("movies.client.circuitbreaker.transitions",
+                "name", "reviews", "from", "HALF_OPEN", "to", "CLOSED").count());
+    }
+
+    @Test
+    void reopensWhenProbeFails() throws InterruptedException {
+        //given
+        var circuitBreaker = circuitBreaker(Duration.ofMillis(50));
+        circuitBreaker.transitionToOpenState();
+        Thread.sleep(100);
+
+        //when
+        StepVerifier.create(circuitBreaker.protect(Mono.error(new ReviewsServerException("Review Service Unavailable"))))
+                .expectError(ReviewsServerException.class)
+                .verify();
+
+        //then
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    void resetClearsTheWindowOfAClosedBreaker() {
+        //given
+        var circuitBreaker = circuitBreaker(Duration.ofMinutes(1));
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(circuitBreaker.protect(Mono.error(new ReviewsServerException("Review Service Unavailable"))))
+                    .expectError(ReviewsServerException.class)
+                    .verify();
+        }
+
+        //when
+        circuitBreaker.reset();
+        StepVerifier.create(circuitBreaker.protect(Mono.error(new ReviewsServerException("Review Service Unavailable"))))
+                .expectError(ReviewsServerException.class)
+                .verify();
+
+        //then
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void halfOpenPermitsAreNotRefilledByRacingCallers() throws Exception {
+        //given
+        var circuitBreaker = circuitBreaker(Duration.ZERO);
+        var threads = 8;
+        var executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int round = 0; round < 200; round++) {
+                circuitBreaker.transitionToOpenState();
+                var start = new CountDownLatch(1);
+                var permitted = new AtomicInteger();
+                var callers = new ArrayList<Future<?>>();
+
+                //when
+                for (int i = 0; i < threads; i++) {
+                    callers.add(executor.submit(() -> {
+                        start.await();
+                        for (int attempt = 0; attempt < 4; attempt++) {
+                            if (circuitBreaker.tryAcquirePermission()) {
+                                permitted.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                for (var caller : callers) {
+                    caller.get(5, TimeUnit.SECONDS);
+                }
+
+                //then
+                assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+                assertEquals(2, permitted.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void bulkheadRejectsCallsOverTheLimit() {
+        //given
+        var bulkhead = new Bulkhead("reviews", 1, meterRegistry);
+        var inFlight = bulkhead.protect(Mono.never()).subscribe();
+
+        //when
+        StepVerifier.create(bulkhead.protect(Mono.just("review")))
+                .expectError(BulkheadFullException.class)
+                .verify();
+        inFlight.dispose();
+
+        //then
+        StepVerifier.create(bulkhead.protect(Mono.just("review")))
+                .expectNext("review")
+                .verifyComplete();
+    }
+
+    private CircuitBreaker circuitBreaker(Duration waitDurationInOpenState) {
+        var properties = new ResilienceProperties.Downstream();
+        properties.setWindowSize(4);
+        properties.setFailureRateThreshold(50);
+        properties.setWaitDurationInOpenState(waitDurationInOpenState);
+        properties.setPermittedCallsInHalfOpenState(2);
+        return new CircuitBreaker("reviews", properties, ex -> !(ex instanceof ReviewsClientException), meterRegistry);
+    }
+}
@@ -0,0 +1,90 @@
+package com.reactivespring.stream;
+
+import com.reactivespring.client.MoviesInfoRestClient;
+import com.reactivespring.domain.MovieInfo;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MovieInfoBroadcasterTest {
+
+    private final Sinks.Many<MovieInfo> upstream = Sinks.many().multicast().directBestEffort();
+    private final AtomicInteger upstreamSubscriptions = new AtomicInteger();
+
+    @Test
+    void stream_sharesOneUpstreamSubscription() {
+        //given
+        var broadcaster = broadcaster(MovieInfoBroadcaster.OverflowStrategy.DROP_OLDEST);
+
+        //when
+        var first = broadcaster.stream().subscribe();
+        var second = broadcaster.stream().subscribe();
+        var third = broadcaster.stream().subscribe();
+
+        //then
+        assertEquals(1, upstreamSubscriptions.get());
+        first.dispose();
+        second.dispose();
+        third.dispose();
+        assertEquals(0, upstream.currentSubscriberCount());
+    }
+
+    @Test
+    void stream_dropOldest_slowSubscriberKeepsNewestUpdates() {
+        //given
+        var broadcaster = broadcaster(MovieInfoBroadcaster.OverflowStrategy.DROP_OLDEST);
+
+        //when
+        StepVerifier.create(broadcaster.stream(), 0)
+                .then(() -> List.of("1", "2", "3", "4").forEach(id -> upstream.tryEmitNext(movieInfo(id))))
+                .thenRequest(2)
+                .assertNext(movieInfo -> assertEquals("3", movieInfo.getMovieInfoId()))
+                .assertNext(movieInfo -> assertEquals("4", movieInfo.getMovieInfoId()))
+                .thenCancel()
+                .verify();
+
+        //then
+        assertEquals(0, upstream.currentSubscriberCount());
+    }
+
+    @Test
+    void stream_disconnect_slowSubscriberIsFailed() {
+        //given
+        var broadcaster = broadcaster(MovieInfoBroadcaster.OverflowStrategy.DISCONNECT);
+        var fastSubscriber = broadcaster.stream().collectList().toFuture();
+
+        //when
+        StepVerifier.create(broadcaster.stream(), 0)
+                .then(() -> List.of("1", "2", "3").forEach(id -> upstream.tryEmitNext(movieInfo(id))))
+                .expectErrorMatches(Exceptions::isOverflow)
+                .verify();
+        upstream.tryEmitComplete();
+
+        //then
+        assertEquals(3, fastSubscriber.join().size());
+    }
+
+    private MovieInfoBroadcaster broadcaster(MovieInfoBroadcaster.OverflowStrategy overflowStrategy) {
+        var moviesInfoRestClient = mock(MoviesInfoRestClient.class);
+        when(moviesInfoRestClient.retrieveMovieInfoStream())
+                .thenReturn(Flux.defer(() -> {
+                    upstreamSubscriptions.incrementAndGet();
+                    return upstream.asFlux();
+                }));
+        return new MovieInfoBroadcaster(moviesInfoRestClient, new SimpleMeterRegistry(), 2, overflowStrategy);
+    }
+
+    private static MovieInfo movieInfo(String movieInfoId) {
+        return new MovieInfo(movieInfoId, "Batman Begins", 2005, List.of("Christian Bale"), null);
+    }
+}
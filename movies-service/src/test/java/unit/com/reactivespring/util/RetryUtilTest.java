@@ -0,0 +1,166 @@
+package com.reactivespring.util;
+
+import com.reactivespring.config.RetryProperties;
+import com.reactivespring.exception.MoviesInfoClientException;
+import com.reactivespring.exception.MoviesInfoServerException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class RetryUtilTest {
+
+    @Test
+    void retrySpec_retriesServerErrors() {
+        //given
+        var retryUtil = new RetryUtil(retryProperties(), new SimpleMeterRegistry());
+        var subscriptions = new AtomicInteger();
+        var call = Mono.defer(() -> {
+            subscriptions.incrementAndGet();
+            return Mono.error(new MoviesInfoServerException("MovieInfo Service Unavailable"));
+        });
+
+        //when
+        StepVerifier.create(call.retryWhen(retryUtil.retrySpec()))
+                .expectErrorMessage("MovieInfo Service Unavailable")
+                .verify();
+
+        //then
+        assertEquals(4, subscriptions.get());
+    }
+
+    @Test
+    void retrySpec_doesNotRetryClientErrors() {
+        //given
+        var retryUtil = new RetryUtil(retryProperties(), new SimpleMeterRegistry());
+        var subscriptions = new AtomicInteger();
+        var call = Mono.defer(() -> {
+            subscriptions.incrementAndGet();
+            return Mono.error(new MoviesInfoClientException("Not Found", 404));
+        });
+
+        //when
+        StepVerifier.create(call.retryWhen(retryUtil.retrySpec()))
+                .expectError(MoviesInfoClientException.class)
+                .verify();
+
+        //then
+        assertEquals(1, subscriptions.get());
+    }
+
+    @Test
+    void retrySpec_stopsWhenBudgetIsExhausted() {
+        //given
+        var properties = retryProperties();
+        properties.getBudget().setRatio(0);
+        properties.getBudget().setMaxRetries(1);
+        var retryUtil = new RetryUtil(properties, new SimpleMeterRegistry());
+        var subscriptions = new AtomicInteger();
+        var call = Mono.defer(() -> {
+            subscriptions.incrementAndGet();
+            return Mono.error(new MoviesInfoServerException("MovieInfo Service Unavailable"));
+        });
+
+        //when
+        StepVerifier.create(call.retryWhen(retryUtil.retrySpec()))
+                .expectErrorMessage("MovieInfo Service Unavailable")
+                .verify();
+
+        //then
+        assertEquals(2, subscriptions.get());
+    }
+
+    @Test
+    void retrySpec_exhaustedAttemptsDoNotWithdraw() {
+        //given
+        var properties = retryProperties();
+        properties.getBudget().setRatio(0);
+        properties.getBudget().setMaxRetries(4);
+        var meterRegistry = new SimpleMeterRegistry();
+        var retryUtil = new RetryUtil(properties, meterRegistry);
+        var subscriptions = new AtomicInteger();
+        var call = Mono.defer(() -> {
+            subscriptions.incrementAndGet();
+            return Mono.error(new MoviesInfoServerException("MovieInfo Service Unavailable"));
+        });
+
+        //when
+        StepVerifier.create(call.retryWhen(retryUtil.retrySpec()))
+                .expectErrorMessage("MovieInfo Service Unavailable")
+                .verify();
+        StepVerifier.create(call.retryWhen(retryUtil.retrySpec()))
+                .expectErrorMessage("MovieInfo Service Unavailable")
+                .verify();
+
+        //then
+        // 3 retries for the first call leave one token for the second
+        assertEquals(4 + 2, subscriptions.get());
+        assertEquals(4.0, meterRegistry.counter("movies.client.retries", "outcome", "retried").count());
+        assertEquals(1.0, meterRegistry.counter("movies.client.retries", "outcome", "budget_exhausted").count());
+    }
+
+    @Test
+    void retrySpec_depositsOnEverySubscription() {
+        //given
+        var properties = retryProperties();
+        properties.setMaxAttempts(1);
+        properties.getBudget().setRatio(1);
+        properties.getBudget().setMaxRetries(1);
+        var retryUtil = new RetryUtil(properties, new SimpleMeterRegistry());
+        var subscriptions = new AtomicInteger();
+        var call = Mono.defer(() -> {
+                    subscriptions.incrementAndGet();
+                    return Mono.<String>error(new MoviesInfoServerException("MovieInfo Service Unavailable"));
+                })
+                .retryWhen(retryUtil.retrySpec());
+
+        //when
+        StepVerifier.create(call)
+                .expectErrorMessage("MovieInfo Service Unavailable")
+                .verify();
+        StepVerifier.create(call)
+                .expectErrorMessage("MovieInfo Service Unavailable")
+                .verify();
+
+        //then
+        assertEquals(4, subscriptions.get());
+    }
+
+    @Test
+    void hedge_takesTheFasterAttempt() {
+        //given
+        var properties = retryProperties();
+        properties.getHedge().setEnabled(true);
+        properties.getHedge().setMinDelay(Duration.ofMillis(50));
+        var retryUtil = new RetryUtil(properties, new SimpleMeterRegistry());
+        for (int i = 0; i < 10; i++) {
+            retryUtil.hedge(Mono.just("warm-up")).block();
+        }
+
+        var subscriptions = new AtomicInteger();
+        var call = Mono.defer(() -> subscriptions.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofSeconds(2)).thenReturn("primary")
+                : Mono.just("hedged"));
+
+        //when
+        StepVerifier.create(retryUtil.hedge(call))
+                .expectNext("hedged")
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+
+        //then
+        assertEquals(2, subscriptions.get());
+    }
+
+    private RetryProperties retryProperties() {
+        var properties = new RetryProperties();
+        properties.setFirstBackoff(Duration.ofMillis(1));
+        properties.setMaxBackoff(Duration.ofMillis(5));
+        return properties;
+    }
+}